@@ -0,0 +1,5 @@
+#!/bin/zsh
+clear
+rm -r bench-bin/
+mkdir bench-bin
+$JAVA_HOME/bin/javac -d bench-bin/ src/*.java bench/*.java && java -cp bench-bin/ ${1:-PoseBench} ${@:2}
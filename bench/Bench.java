@@ -0,0 +1,88 @@
+import java.io.*;
+import java.util.*;
+
+/**
+ * Tiny benchmark harness: warms an operation up, then times a number of
+ * measurement rounds and reports the median and spread per operation.
+ * Every result is kept so a suite can be written out as JSON and compared
+ * against an earlier run (see BenchCompare).
+ */
+public class Bench {
+
+    public interface Op {
+        Object run() throws Exception;
+    }
+
+    public static volatile Object sink; // keeps results alive so nothing gets optimized away
+
+    public static class Result {
+        public final String name;
+        public final double medianNanos, minNanos, maxNanos;
+        public Result(String name, double medianNanos, double minNanos, double maxNanos) {
+            this.name = name;
+            this.medianNanos = medianNanos;
+            this.minNanos = minNanos;
+            this.maxNanos = maxNanos;
+        }
+        public String toString() {
+            return String.format("%-40s %12.1f us/op  [%.1f .. %.1f]",
+                                 name, medianNanos/1e3, minNanos/1e3, maxNanos/1e3);
+        }
+    }
+
+    public static int warmupRounds = 5, measureRounds = 10;
+    public static long roundNanos = 200_000_000L;
+
+    public static final List<Result> results = new ArrayList<>();
+
+    public static Result run(String name, Op op) throws Exception {
+        // calibrate the number of ops per round
+        int opsPerRound = 1;
+        while (true) {
+            long t = timeOps(op, opsPerRound);
+            if (t > roundNanos/4 || opsPerRound >= 1<<24) {
+                opsPerRound = (int)Math.max(1, opsPerRound * (double)roundNanos / Math.max(t, 1));
+                break;
+            }
+            opsPerRound *= 2;
+        }
+        for (int i = 0; i < warmupRounds; i++) timeOps(op, opsPerRound);
+        double[] times = new double[measureRounds];
+        for (int i = 0; i < measureRounds; i++) times[i] = (double)timeOps(op, opsPerRound) / opsPerRound;
+        Arrays.sort(times);
+        Result r = new Result(name, times[times.length/2], times[0], times[times.length-1]);
+        System.out.println(r);
+        results.add(r);
+        return r;
+    }
+
+    public static void writeJSON(File file, Map<String, String> params) throws IOException {
+        try (PrintWriter out = new PrintWriter(new FileWriter(file))) {
+            out.println("{");
+            out.println("  \"params\": {");
+            int n = 0;
+            for (Map.Entry<String, String> e : params.entrySet()) {
+                out.println("    "+BatchICP.jsonString(e.getKey())+": "+BatchICP.jsonString(e.getValue())+
+                            (++n < params.size()? "," : ""));
+            }
+            out.println("  },");
+            out.println("  \"results\": [");
+            for (int i = 0; i < results.size(); i++) {
+                Result r = results.get(i);
+                out.println("    {\"name\": "+BatchICP.jsonString(r.name)+
+                            ", \"median_ns\": "+r.medianNanos+
+                            ", \"min_ns\": "+r.minNanos+
+                            ", \"max_ns\": "+r.maxNanos+"}"+
+                            (i+1 < results.size()? "," : ""));
+            }
+            out.println("  ]");
+            out.println("}");
+        }
+    }
+
+    private static long timeOps(Op op, int n) throws Exception {
+        long start = System.nanoTime();
+        for (int i = 0; i < n; i++) sink = op.run();
+        return System.nanoTime() - start;
+    }
+}
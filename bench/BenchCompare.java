@@ -0,0 +1,52 @@
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.*;
+import java.util.regex.*;
+
+/**
+ * Compares two JSON files written by Bench.writeJSON and flags benchmarks
+ * whose median got slower by more than the threshold.
+ * Usage: java BenchCompare [-threshold percent] old.json new.json
+ * Exits with status 1 if anything regressed.
+ */
+public class BenchCompare {
+
+    private static final Pattern RESULT =
+        Pattern.compile("\\{\"name\": \"((?:[^\"\\\\]|\\\\.)*)\", \"median_ns\": ([-0-9.eE]+)");
+
+    static Map<String, Double> read(String file) throws IOException {
+        Map<String, Double> medians = new LinkedHashMap<>();
+        Matcher m = RESULT.matcher(new String(Files.readAllBytes(Paths.get(file))));
+        while (m.find()) medians.put(m.group(1), Double.parseDouble(m.group(2)));
+        return medians;
+    }
+
+    public static void main(String[] args) throws IOException {
+        double threshold = 10;
+        int a = 0;
+        if (args.length > 1 && args[0].equals("-threshold")) {
+            threshold = Double.parseDouble(args[1]);
+            a = 2;
+        }
+        if (args.length != a+2) {
+            System.err.println("usage: java BenchCompare [-threshold percent] old.json new.json");
+            System.exit(2);
+        }
+        Map<String, Double> before = read(args[a]), after = read(args[a+1]);
+        int regressions = 0;
+        for (Map.Entry<String, Double> e : after.entrySet()) {
+            Double old = before.get(e.getKey());
+            if (old == null) {
+                System.out.printf("%-50s %12s -> %10.1f us  (new)%n", e.getKey(), "", e.getValue()/1e3);
+                continue;
+            }
+            double change = 100 * (e.getValue() - old) / old;
+            boolean regressed = change > threshold;
+            if (regressed) regressions++;
+            System.out.printf("%-50s %10.1f us -> %10.1f us  %+6.1f%%%s%n", e.getKey(), old/1e3, e.getValue()/1e3,
+                              change, regressed? "  REGRESSION" : "");
+        }
+        System.out.println(regressions+" regression(s) over "+threshold+"%");
+        if (regressions > 0) System.exit(1);
+    }
+}
@@ -0,0 +1,89 @@
+import java.util.*;
+
+/**
+ * What motion distortion does to ICP, and what Deskew buys back, on
+ * simulated revolutions: a sensor in the middle of ReferenceModel.BOX
+ * samples it every 0.5 degrees while the box's pose moves at a constant
+ * velocity (with 5 mm of range noise). Each revolution is registered
+ * raw and deskewed with the true velocity, both starting a little off the
+ * true pose at the end of the revolution, like a tracker's prediction. Reports
+ * iterations to Convergence.defaults(), the inlier error, and how far the
+ * result is from the true pose at the end of the revolution; then times
+ * Deskew.apply itself.
+ * Usage: java DeskewBench
+ */
+public class DeskewBench {
+
+    static final int SAMPLES = 720;
+    static final double NOISE = 5; // mm
+    static final Transform END = new Transform(0.2, 300, -200);
+    static final double[] START_ERROR = {0.01, 30, -20}; // of the initial guess: rad, mm
+
+    public static void main(String[] args) throws Exception {
+        System.setProperty("java.awt.headless", "true");
+        // rad, mm and mm per revolution
+        String[] names = {"still", "drive 200", "turn 0.05", "turn 0.1", "both"};
+        double[][] motions = {{0, 0, 0}, {0, 200, 0}, {0.05, 0, 0}, {0.1, 0, 0}, {0.1, 200, 100}};
+        System.out.printf("%-10s %-9s %6s %8s %10s %10s%n", "motion", "points", "iters", "err mm", "d pose mm", "d theta deg");
+        for (int m = 0; m < names.length; m++) {
+            double[] v = motions[m];
+            PointCloud raw = scan(END, v, new Random(PoseBench.SEED));
+            PointCloud fixed = new PointCloud(raw.size);
+            for (int i = 0; i < raw.size; i++) fixed.add(raw.x[i], raw.y[i], raw.theta[i], raw.dist[i], raw.rev[i], i);
+            Deskew.apply(fixed, 1, END, v);
+            Transform start = new Transform(END.theta + START_ERROR[0], END.tx + START_ERROR[1], END.ty + START_ERROR[2]);
+            report(names[m], "raw", raw, start);
+            report(names[m], "deskewed", fixed, start);
+        }
+
+        for (int n : new int[] {SAMPLES, 100000}) {
+            Random rand = new Random(PoseBench.SEED);
+            PointCloud src = new PointCloud(n);
+            for (int i = 0; i < n; i++) {
+                double theta = 2*Math.PI*i/n, d = 3000 + rand.nextDouble()*4000;
+                src.add(d*Math.cos(theta), d*Math.sin(theta), theta, d, 0, i);
+            }
+            double[] outX = new double[n], outY = new double[n];
+            Bench.run("deskew/apply/n="+n, () -> {
+                Deskew.apply(src.x, src.y, src.theta, src.rev, 0, n, 1, END.tx, END.ty, 0.1, 200, 100, outX, outY);
+                return outX;
+            });
+        }
+    }
+
+    static void report(String motion, String what, PointCloud cloud, Transform start) {
+        ICP icp = new ICP(ICPLog.SILENT, Point.fromRect(start.tx, start.ty));
+        icp.reference = ReferenceModel.BOX;
+        icp.icpTrans = start;
+        ICPResult r = icp.doICP(Convergence.defaults(), cloud);
+        System.out.printf("%-10s %-9s %6d %8.2f %10.2f %10.3f%n", motion, what, r.iterations, r.inlierMeanError,
+                          Math.hypot(r.trans.tx - END.tx, r.trans.ty - END.ty),
+                          Math.toDegrees(r.trans.theta - END.theta));
+    }
+
+    // the pose tau revolutions after end, moving at v
+    static Transform at(Transform end, double[] v, double tau) {
+        return new Transform(end.theta + v[0]*tau, end.tx + v[1]*tau, end.ty + v[2]*tau);
+    }
+
+    // one revolution (number 0) ending with the box at end
+    static PointCloud scan(Transform end, double[] v, Random rand) {
+        PointCloud cloud = new PointCloud(SAMPLES);
+        for (int k = 0; k < SAMPLES; k++) {
+            double theta = 2*Math.PI*k/SAMPLES;
+            Transform pose = at(end, v, (double)k/SAMPLES - 1);
+            double dx = Math.cos(theta), dy = Math.sin(theta), best = Double.POSITIVE_INFINITY;
+            for (Segment s : ReferenceModel.BOX.segments) {
+                Point p0 = pose.apply(s.pMin), p1 = pose.apply(s.pMax);
+                double ex = p1.x - p0.x, ey = p1.y - p0.y, den = dx*ey - dy*ex;
+                if (den == 0) continue;
+                double d = (p0.x*ey - p0.y*ex) / den, u = (p0.x*dy - p0.y*dx) / den;
+                if (d > 0 && u >= 0 && u <= 1) best = Math.min(best, d);
+            }
+            if (best == Double.POSITIVE_INFINITY) continue;
+            double d = best + rand.nextGaussian()*NOISE;
+            cloud.add(d*dx, d*dy, theta, d, 0, cloud.size);
+        }
+        return cloud;
+    }
+}
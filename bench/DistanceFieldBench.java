@@ -0,0 +1,43 @@
+import java.util.Random;
+
+/**
+ * Closest-point queries through a DistanceField vs. the exact ReferenceModel
+ * query, for the tower and for a big random wall map, with the field's build
+ * cost, footprint and accuracy.
+ * Usage: java DistanceFieldBench [resolution mm]
+ */
+public class DistanceFieldBench {
+
+    static final int NUM_QUERIES = 10000;
+
+    public static void main(String[] args) throws Exception {
+        double res = args.length > 0? Double.parseDouble(args[0]) : 20;
+        Random rand = new Random(7);
+        ReferenceModel walls = new ReferenceModel(SegmentIndexBench.randomWalls(1000, rand));
+        run("TOWER", ReferenceModel.TOWER, 1000, res, rand);
+        run("1000 walls", walls, 0, res*5, rand);
+    }
+
+    static void run(String name, ReferenceModel model, double margin, double res, Random rand) throws Exception {
+        DistanceField field = DistanceField.around(model, margin, res);
+        System.out.println("== "+name);
+        System.out.println(field.getStats(100000, rand));
+
+        PointCloud queries = new PointCloud(NUM_QUERIES);
+        for (int i = 0; i < NUM_QUERIES; i++) {
+            queries.add(field.minX + rand.nextDouble()*field.width*field.res,
+                        field.minY + rand.nextDouble()*field.height*field.res, 0, 0, 0, i);
+        }
+        double[] outX = new double[NUM_QUERIES], outY = new double[NUM_QUERIES], outDist = new double[NUM_QUERIES];
+        Bench.Result exact = Bench.run("exact", () -> {
+            model.closestPoints(queries, outX, outY, outDist);
+            return outDist;
+        });
+        Bench.Result fast = Bench.run("DistanceField", () -> {
+            field.closestPoints(queries, 0, NUM_QUERIES, outX, outY, outDist);
+            return outDist;
+        });
+        System.out.printf("  per query: exact %.1f ns, field %.1f ns%n",
+                          exact.medianNanos/NUM_QUERIES, fast.medianNanos/NUM_QUERIES);
+    }
+}
@@ -0,0 +1,61 @@
+import java.io.File;
+import java.util.*;
+
+/**
+ * ScanFilter chains ahead of ICP, on every bundled dataset (merged, in
+ * theta order, cut to the ICP region first): how long the filter takes,
+ * how many ICP points are left, ICP's iterations and median time from the
+ * correlative seed to Convergence.defaults(), the time per iteration, and
+ * how far the pose ends up from the unfiltered one.
+ * Usage: java FilterBench [data dir]
+ */
+public class FilterBench {
+
+    static final int RUNS = 20;
+    static final String ROI = "roi:6000:-7000:8000:7000";
+    static final String[] SPECS = {
+        ROI, ROI+",shadow:10:64", ROI+",radius:50:3:64", ROI+",stat:4:2:64",
+        ROI+",angular:0.5", ROI+",voxel:20", ROI+",voxel:40",
+        ROI+",shadow:10:64,stat:4:2:64,voxel:30"
+    };
+
+    public static void main(String[] args) throws Exception {
+        System.setProperty("java.awt.headless", "true");
+        File dir = new File(args.length > 0? args[0] : "data");
+        CorrelativeMatcher matcher = new CorrelativeMatcher(ReferenceModel.TOWER);
+        System.out.printf("%-14s %-38s %9s %6s %6s %9s %9s %10s %11s%n", "dataset", "filter", "filter ms",
+                          "points", "iters", "icp ms", "us/iter", "d pose mm", "d theta deg");
+        for (String name : PoseBench.DATASETS) {
+            PointCloud all = PointCloud.of(new ScanLoader(ICPLog.SILENT).load(new File(dir, name+".txt")));
+            Transform reference = null;
+            for (String spec : SPECS) {
+                ScanFilter filter = ScanFilter.parse(spec);
+                PointCloud out = filter.apply(all);
+                Transform seed = matcher.match(out);
+                double[] filterMillis = new double[RUNS], icpMillis = new double[RUNS];
+                ICPResult result = null;
+                for (int r = 0; r < RUNS; r++) {
+                    out.clear();
+                    long start = System.nanoTime();
+                    filter.apply(all, out);
+                    filterMillis[r] = (System.nanoTime() - start) / 1e6;
+
+                    ICP icp = new ICP(ICPLog.SILENT, Point.fromRect(7000, 0));
+                    if (seed != null) icp.icpTrans = seed;
+                    start = System.nanoTime();
+                    result = icp.doICP(Convergence.defaults(), out);
+                    icpMillis[r] = (System.nanoTime() - start) / 1e6;
+                }
+                Arrays.sort(filterMillis);
+                Arrays.sort(icpMillis);
+                if (reference == null) reference = result.trans;
+                System.out.printf("%-14s %-38s %9.3f %6d %6d %9.3f %9.2f %10.2f %11.3f%n", name,
+                                  spec.equals(ROI)? "(none)" : spec.substring(ROI.length()+1),
+                                  filterMillis[RUNS/2], out.size, result.iterations, icpMillis[RUNS/2],
+                                  1000*icpMillis[RUNS/2] / Math.max(1, result.iterations),
+                                  Math.hypot(result.trans.tx - reference.tx, result.trans.ty - reference.ty),
+                                  Math.toDegrees(result.trans.theta - reference.theta));
+            }
+        }
+    }
+}
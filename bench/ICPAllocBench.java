@@ -0,0 +1,50 @@
+import java.io.File;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Measures how many bytes steady-state ICP iterations allocate (should be 0).
+ * Usage: java ICPAllocBench [scan file] [iterations]
+ *
+ * For a per-site breakdown, run it under JFR:
+ *   java -XX:StartFlightRecording=filename=icp.jfr,settings=profile -cp bench-bin ICPAllocBench
+ *   jfr print --events jdk.ObjectAllocationSample icp.jfr
+ */
+public class ICPAllocBench {
+
+    static final int WARMUP_ITERS = 10;
+
+    public static void main(String[] args) throws Exception {
+        File file = new File(args.length > 0? args[0] : "data/right-far.txt");
+        int iterations = args.length > 1? Integer.parseInt(args[1]) : 5000;
+        PointCloud cloud = PointCloud.of(ICP.getICPPoints(new ScanLoader(ICPLog.SILENT).load(file)));
+        com.sun.management.ThreadMXBean mx = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+
+        for (int run = 0; run < 5; run++) {
+            long[] bytes = new long[2];
+            int[] iters = new int[1];
+            ICPLog log = new ICPLog() {
+                public void debug(Object msg) {}
+                public void progress(int iteration, int total) {
+                    long b = mx.getCurrentThreadAllocatedBytes();
+                    if (iteration == WARMUP_ITERS) bytes[0] = b;
+                    bytes[1] = b;
+                    iters[0] = iteration;
+                }
+            };
+            ICP icp = new ICP(log, averagePoint(cloud));
+            icp.doICP(iterations, cloud);
+            int measured = iters[0] - WARMUP_ITERS;
+            System.out.printf("run %d: %d iterations, %d bytes allocated after warmup (%.2f bytes/iteration)%n",
+                              run, iters[0], bytes[1] - bytes[0], measured > 0? (double)(bytes[1] - bytes[0]) / measured : 0.0);
+        }
+    }
+
+    static Point averagePoint(PointCloud cloud) {
+        double sumX = 0, sumY = 0;
+        for (int i = 0; i < cloud.size; i++) {
+            sumX += cloud.x[i];
+            sumY += cloud.y[i];
+        }
+        return Point.fromRect(sumX/cloud.size, sumY/cloud.size);
+    }
+}
@@ -0,0 +1,44 @@
+import java.io.File;
+import java.util.*;
+
+/**
+ * ICP with each RobustKernel on every bundled dataset: iterations and time
+ * to convergence, how it stopped, and the inlier error, plus the spread of
+ * the time over repeated runs.
+ * Usage: java KernelBench [data dir]
+ */
+public class KernelBench {
+
+    static final int RUNS = 20;
+
+    public static void main(String[] args) throws Exception {
+        System.setProperty("java.awt.headless", "true");
+        File dir = new File(args.length > 0? args[0] : "data");
+        RobustKernel[] kernels = {
+            RobustKernel.HARD, RobustKernel.huber(), RobustKernel.tukey(),
+            RobustKernel.cauchy(), RobustKernel.trimmed(0.8), RobustKernel.trimmed(0.5)
+        };
+        System.out.printf("%-14s %-14s %6s %-14s %8s %8s %10s %10s%n",
+                          "dataset", "kernel", "iters", "stop", "inliers", "err mm", "median ms", "max ms");
+        for (String name : PoseBench.DATASETS) {
+            ArrayList<Point> icpPoints = ICP.getICPPoints(new ScanLoader(ICPLog.SILENT).load(new File(dir, name+".txt")));
+            PointCloud cloud = PointCloud.of(icpPoints);
+            Point guess = ICP.getAveragePoint(icpPoints);
+            for (RobustKernel kernel : kernels) {
+                double[] millis = new double[RUNS];
+                ICPResult result = null;
+                for (int r = 0; r < RUNS; r++) {
+                    ICP icp = new ICP(ICPLog.SILENT, guess);
+                    icp.kernel = kernel;
+                    long start = System.nanoTime();
+                    result = icp.doICP(Convergence.defaults(), cloud);
+                    millis[r] = (System.nanoTime() - start) / 1e6;
+                }
+                Arrays.sort(millis);
+                System.out.printf("%-14s %-14s %6d %-14s %8d %8.2f %10.2f %10.2f%n",
+                                  name, kernel, result.iterations, result.stop, result.inliers,
+                                  result.inlierMeanError, millis[RUNS/2], millis[RUNS-1]);
+            }
+        }
+    }
+}
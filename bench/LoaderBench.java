@@ -0,0 +1,59 @@
+import java.io.*;
+import java.util.*;
+
+/**
+ * Compares the old readLine/split/parseDouble loader against ScanParser.
+ * Usage: java LoaderBench [data dir] [file names...]
+ */
+public class LoaderBench {
+
+    // the loader as it was before ScanParser, kept here as the baseline
+    static ArrayList<Point> loadLegacy(File file) throws IOException {
+        ArrayList<Point> points = new ArrayList<Point>();
+        try (BufferedReader br = new BufferedReader(new FileReader(file))) {
+            String str;
+            double lastTheta = -1;
+            int rev = 0;
+            while ((str = br.readLine()) != null) {
+                String[] polar = str.split(" ");
+                double r = Double.parseDouble(polar[1]), theta = Math.toRadians(Double.parseDouble(polar[0]));
+                if (Double.isNaN(r) || Double.isNaN(theta)) throw new RuntimeException("NaN in data! \""+str+"\"");
+                if (theta < lastTheta) rev++;
+                lastTheta = theta;
+                if (r == 0) continue;
+                Point p = Point.fromPolar(theta, r);
+                p.revNum = rev;
+                points.add(p);
+            }
+        }
+        Collections.sort(points);
+        return points;
+    }
+
+    static void check(List<Point> a, List<Point> b, String name) {
+        boolean same = a.size() == b.size();
+        for (int i = 0; same && i < a.size(); i++) {
+            Point p = a.get(i), q = b.get(i);
+            same = p.x == q.x && p.y == q.y && p.revNum == q.revNum;
+        }
+        if (!same) throw new AssertionError(name+": ScanParser output differs from the legacy loader");
+    }
+
+    public static void main(String[] args) throws Exception {
+        File dir = new File(args.length > 0? args[0] : "data");
+        String[] names = args.length > 1? Arrays.copyOfRange(args, 1, args.length)
+                                        : new String[] {"data_cube", "right-far", "left"};
+        for (String name : names) {
+            File f = new File(dir, name+".txt");
+            check(loadLegacy(f), new ScanLoader(ICPLog.SILENT).load(f), name);
+
+            System.out.println("== "+name+" ("+f.length()/1000+" kB)");
+            Bench.Result legacy = Bench.run("legacy readLine+split+sort", () -> loadLegacy(f));
+            Bench.Result parse  = Bench.run("ScanParser parse only", () -> new ScanParser(ScanParser.map(f)).parse());
+            Bench.Result full   = Bench.run("ScanParser + merge to Points", () -> new ScanLoader(ICPLog.SILENT).load(f));
+            for (Bench.Result r : new Bench.Result[] {legacy, parse, full}) {
+                System.out.printf("  %-38s %8.1f MB/s%n", r.name, ScanParser.getMBps(f.length(), (long)r.medianNanos));
+            }
+        }
+    }
+}
@@ -0,0 +1,98 @@
+import java.io.File;
+import java.util.*;
+
+/**
+ * MultiICP against separate ICP runs, on every bundled dataset:
+ *
+ *   candidates  the correlative seed plus CANDIDATES-1 perturbed poses of
+ *               the tower, as candidates of one target; separate runs keep
+ *               the one with the lowest inlier error, MultiICP prunes down
+ *               to it in one sweep
+ *   two towers  the ICP points plus a copy moved TWIN_OFFSET mm along y,
+ *               with one target per tower
+ *
+ * Reports the median times, the mean inlier error of the best separate run
+ * and of the best hypothesis left, how many hypotheses are left, and how far
+ * the one on the original tower is from the pose plain ICP finds from the
+ * seed. (Separate runs on the two towers see both, so they fit neither.)
+ * Usage: java MultiICPBench [data dir]
+ */
+public class MultiICPBench {
+
+    static final int RUNS = 20, CANDIDATES = 8;
+    static final double TWIN_OFFSET = 1500;
+
+    public static void main(String[] args) throws Exception {
+        System.setProperty("java.awt.headless", "true");
+        File dir = new File(args.length > 0? args[0] : "data");
+        CorrelativeMatcher matcher = new CorrelativeMatcher(ReferenceModel.TOWER);
+        System.out.printf("%-14s %-12s %12s %12s %10s %10s %6s %10s %12s%n", "dataset", "case", "separate ms",
+                          "multi ms", "sep err", "multi err", "left", "d pose mm", "d theta deg");
+        for (String name : PoseBench.DATASETS) {
+            ArrayList<Point> icpPoints = ICP.getICPPoints(new ScanLoader(ICPLog.SILENT).load(new File(dir, name+".txt")));
+            PointCloud cloud = PointCloud.of(icpPoints);
+            Transform seed = matcher.match(cloud);
+            ICP ref = new ICP(ICPLog.SILENT, ICP.getAveragePoint(icpPoints));
+            ref.icpTrans = seed;
+            Transform expected = ref.doICP(Convergence.defaults(), cloud).trans;
+
+            Random rand = new Random(PoseBench.SEED);
+            List<Transform> candidates = new ArrayList<>();
+            candidates.add(seed);
+            for (int c = 1; c < CANDIDATES; c++) {
+                candidates.add(new Transform(seed.theta + Math.toRadians(rand.nextGaussian()*10),
+                                             seed.tx + rand.nextGaussian()*200, seed.ty + rand.nextGaussian()*200));
+            }
+            report(name, "candidates", cloud, candidates, true, expected);
+
+            PointCloud twins = new PointCloud(2*cloud.size);
+            for (int i = 0; i < cloud.size; i++) twins.add(cloud.x[i], cloud.y[i], 0, 0, 0, i);
+            for (int i = 0; i < cloud.size; i++) twins.add(cloud.x[i], cloud.y[i] + TWIN_OFFSET, 0, 0, 0, i);
+            report(name, "two towers", twins,
+                   Arrays.asList(seed, new Transform(seed.theta, seed.tx, seed.ty + TWIN_OFFSET)), false, expected);
+        }
+    }
+
+    static void report(String name, String what, PointCloud cloud, List<Transform> guesses, boolean oneTarget,
+                       Transform expected) {
+        double[] separate = new double[RUNS], multi = new double[RUNS];
+        List<MultiICP.Hypothesis> left = null;
+        double bestErr = Double.POSITIVE_INFINITY;
+        for (int r = 0; r < RUNS; r++) {
+            long start = System.nanoTime();
+            bestErr = Double.POSITIVE_INFINITY;
+            for (Transform g : guesses) {
+                ICP icp = new ICP(ICPLog.SILENT, Point.fromRect(g.tx, g.ty));
+                icp.icpTrans = g;
+                bestErr = Math.min(bestErr, icp.doICP(Convergence.defaults(), cloud).inlierMeanError);
+            }
+            separate[r] = (System.nanoTime() - start) / 1e6;
+
+            start = System.nanoTime();
+            MultiICP m = new MultiICP(ICPLog.SILENT);
+            MultiICP.Hypothesis first = m.add(ReferenceModel.TOWER, guesses.get(0));
+            for (Transform g : guesses.subList(1, guesses.size())) {
+                if (oneTarget) m.add(first, g);
+                else m.add(ReferenceModel.TOWER, g);
+            }
+            left = m.doICP(Convergence.defaults(), cloud);
+            multi[r] = (System.nanoTime() - start) / 1e6;
+        }
+        Arrays.sort(separate);
+        Arrays.sort(multi);
+        // the hypothesis on the original tower (the one nearest the expected pose)
+        MultiICP.Hypothesis best = null;
+        for (MultiICP.Hypothesis h : left) {
+            if (best == null || dist(h.trans, expected) < dist(best.trans, expected)) best = h;
+        }
+        System.out.printf("%-14s %-12s %12.2f %12.2f %10.2f %10.2f %6d %10.2f %12.3f%n",
+                          name, what, separate[RUNS/2], multi[RUNS/2], bestErr,
+                          left.isEmpty()? Double.NaN : left.get(0).inlierMeanError, left.size(),
+                          best == null? Double.NaN : dist(best.trans, expected),
+                          best == null? Double.NaN : Math.toDegrees(best.trans.theta - expected.theta));
+    }
+
+    static double dist(Transform a, Transform b) {
+        return Math.hypot(a.tx - b.tx, a.ty - b.ty);
+    }
+}
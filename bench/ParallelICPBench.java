@@ -0,0 +1,48 @@
+import java.io.File;
+import java.util.Random;
+
+/**
+ * Sequential vs parallel ICP on a big synthetic cloud (a bundled scan's ICP
+ * points, replicated with jitter), and a check that parallel runs repeat
+ * bit for bit.
+ * Usage: java ParallelICPBench [scan file] [copies] [iterations]
+ */
+public class ParallelICPBench {
+
+    public static void main(String[] args) throws Exception {
+        File file = new File(args.length > 0? args[0] : "data/middle.txt");
+        int copies = args.length > 1? Integer.parseInt(args[1]) : 500;
+        int iterations = args.length > 2? Integer.parseInt(args[2]) : 50;
+
+        PointCloud base = PointCloud.of(ICP.getICPPoints(new ScanLoader(ICPLog.SILENT).load(file)));
+        PointCloud cloud = new PointCloud(base.size*copies);
+        Random rand = new Random(1234);
+        for (int c = 0; c < copies; c++) {
+            for (int i = 0; i < base.size; i++) {
+                cloud.add(base.x[i] + rand.nextGaussian()*5, base.y[i] + rand.nextGaussian()*5,
+                          base.theta[i], base.dist[i], c, cloud.size);
+            }
+        }
+        System.out.println(cloud.size+" points, "+iterations+" iterations, "+
+                           Runtime.getRuntime().availableProcessors()+" cores");
+
+        Transform first = null;
+        for (boolean parallel : new boolean[] {false, true}) {
+            Bench.Result r = Bench.run(parallel? "parallel" : "sequential", () -> run(cloud, iterations, parallel));
+            System.out.printf("  %.1f us/iteration%n", r.medianNanos/1e3/(iterations+1));
+        }
+        for (int run = 0; run < 5; run++) {
+            Transform t = run(cloud, iterations, true);
+            if (first == null) first = t;
+            else if (t.theta != first.theta || t.tx != first.tx || t.ty != first.ty)
+                throw new AssertionError("parallel ICP isn't deterministic: "+first+" vs "+t);
+        }
+        System.out.println("parallel results identical across runs: "+first);
+    }
+
+    static Transform run(PointCloud cloud, int iterations, boolean parallel) {
+        ICP icp = new ICP(ICPLog.SILENT, Point.fromRect(7000, 0));
+        icp.parallel = parallel;
+        return icp.doICP(iterations, cloud);
+    }
+}
@@ -0,0 +1,45 @@
+import java.io.File;
+import java.util.*;
+
+/**
+ * Point-to-point vs. point-to-line ICP on every bundled dataset: iterations
+ * and wall time to convergence (Convergence.defaults()), how it stopped,
+ * the residual, and how far apart the two final poses are.
+ * Usage: java PointToLineBench [data dir]
+ */
+public class PointToLineBench {
+
+    static final int RUNS = 20;
+
+    public static void main(String[] args) throws Exception {
+        System.setProperty("java.awt.headless", "true");
+        File dir = new File(args.length > 0? args[0] : "data");
+        System.out.printf("%-14s %-15s %6s %-14s %8s %10s %10s%n",
+                          "dataset", "metric", "iters", "stop", "err mm", "median ms", "max ms");
+        for (String name : PoseBench.DATASETS) {
+            ArrayList<Point> icpPoints = ICP.getICPPoints(new ScanLoader(ICPLog.SILENT).load(new File(dir, name+".txt")));
+            PointCloud cloud = PointCloud.of(icpPoints);
+            Point guess = ICP.getAveragePoint(icpPoints);
+            Transform[] poses = new Transform[2];
+            for (ICP.Metric metric : ICP.Metric.values()) {
+                double[] millis = new double[RUNS];
+                ICPResult result = null;
+                for (int r = 0; r < RUNS; r++) {
+                    ICP icp = new ICP(ICPLog.SILENT, guess);
+                    icp.metric = metric;
+                    long start = System.nanoTime();
+                    result = icp.doICP(Convergence.defaults(), cloud);
+                    millis[r] = (System.nanoTime() - start) / 1e6;
+                }
+                Arrays.sort(millis);
+                poses[metric.ordinal()] = result.trans;
+                System.out.printf("%-14s %-15s %6d %-14s %8.2f %10.2f %10.2f%n",
+                                  name, metric, result.iterations, result.stop,
+                                  result.inlierMeanError, millis[RUNS/2], millis[RUNS-1]);
+            }
+            System.out.printf("%-14s poses differ by %.2f mm, %.3f deg%n", name,
+                              Math.hypot(poses[0].tx - poses[1].tx, poses[0].ty - poses[1].ty),
+                              Math.toDegrees(poses[0].theta - poses[1].theta));
+        }
+    }
+}
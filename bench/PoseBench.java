@@ -0,0 +1,122 @@
+import java.io.File;
+import java.util.*;
+
+/**
+ * Regression suite for the pose pipeline: scan loading, Transform.apply,
+ * closest-point queries, line fitting, the correlative initial guess,
+ * end-to-end ICP and per-revolution tracking on every bundled dataset. All inputs are fixed or come from fixed seeds, so runs are
+ * comparable; write JSON with -o and diff two runs with BenchCompare.
+ *
+ * Usage: java PoseBench [-quick] [-o results.json] [data dir]
+ */
+public class PoseBench {
+
+    // same as Display.DATA_FILES, without loading Swing
+    public static final String[] DATASETS = {
+        "left", "left-middle", "middle", "right-middle", "right", "right-far"
+    };
+    public static final long SEED = 20180226L;
+
+    public static void main(String[] args) throws Exception {
+        System.setProperty("java.awt.headless", "true");
+        String outFile = null;
+        File dir = new File("data");
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-quick")) {
+                Bench.warmupRounds = 2;
+                Bench.measureRounds = 5;
+                Bench.roundNanos = 50_000_000L;
+            } else if (args[i].equals("-o") && i+1 < args.length) {
+                outFile = args[++i];
+            } else {
+                dir = new File(args[i]);
+            }
+        }
+
+        // loading
+        for (String name : DATASETS) {
+            File f = new File(dir, name+".txt");
+            Bench.run("load/legacy/"+name, () -> LoaderBench.loadLegacy(f));
+            Bench.run("load/ScanLoader/"+name, () -> new ScanLoader(ICPLog.SILENT).load(f));
+        }
+
+        // Transform.apply over N points
+        Random rand = new Random(SEED);
+        Transform trans = new Transform(0.3, 1234, -567);
+        for (int n : new int[] {1000, 100000}) {
+            ArrayList<Point> points = new ArrayList<>(n);
+            for (int i = 0; i < n; i++) points.add(Point.fromPolar(rand.nextDouble()*2*Math.PI, rand.nextDouble()*10000));
+            PointCloud src = PointCloud.of(points), dst = new PointCloud(n);
+            Bench.run("transform/apply/n="+n, () -> {
+                double sum = 0;
+                for (Point p : points) sum += trans.apply(p).x;
+                return sum;
+            });
+            Bench.run("transform/applyAll/n="+n, () -> {
+                trans.applyAll(src, dst);
+                return dst;
+            });
+        }
+
+        // closest point queries
+        int numQueries = 1000;
+        PointCloud queries = new PointCloud(numQueries);
+        for (int i = 0; i < numQueries; i++) {
+            queries.add(rand.nextDouble()*50000 - 25000, rand.nextDouble()*50000 - 25000, 0, 0, 0, i);
+        }
+        double[] outX = new double[numQueries], outY = new double[numQueries], outDist = new double[numQueries];
+        for (int segs : new int[] {1, 10, 1000}) {
+            ReferenceModel model = segs == 1? ReferenceModel.TOWER
+                                            : new ReferenceModel(SegmentIndexBench.randomWalls(segs, rand));
+            Bench.run("closestPoint/segments="+segs+"/queries="+numQueries, () -> {
+                double sum = 0;
+                for (int i = 0; i < numQueries; i++) sum += model.getClosestPoint(queries.getPoint(i)).x;
+                return sum;
+            });
+            Bench.run("closestPoints/segments="+segs+"/queries="+numQueries, () -> {
+                model.closestPoints(queries, outX, outY, outDist);
+                return outDist;
+            });
+        }
+
+        // line fitting
+        ArrayList<Point> linePoints = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            double t = i*5;
+            linePoints.add(Point.fromRect(7000 + 0.2*t + rand.nextGaussian()*10, -2500 + t + rand.nextGaussian()*10));
+        }
+        Bench.run("line/getFitLine/n=1000", () -> Line.getFitLine(linePoints));
+
+        // end-to-end ICP
+        for (String name : DATASETS) {
+            ArrayList<Point> icpPoints = ICP.getICPPoints(new ScanLoader(ICPLog.SILENT).load(new File(dir, name+".txt")));
+            Point guess = ICP.getAveragePoint(icpPoints);
+            Bench.run("icp/defaults/"+name, () -> new ICP(ICPLog.SILENT, guess).doICP(Convergence.defaults(), icpPoints));
+            Bench.run("icp/exact5000/"+name, () -> new ICP(ICPLog.SILENT, guess).doICP(5000, icpPoints));
+            CorrelativeMatcher matcher = new CorrelativeMatcher(ReferenceModel.TOWER);
+            Bench.run("seed/correlative/"+name, () -> matcher.match(icpPoints));
+            Transform seed = matcher.match(icpPoints);
+            Bench.run("icp/seeded/"+name, () -> {
+                ICP icp = new ICP(ICPLog.SILENT, guess);
+                icp.icpTrans = seed;
+                return icp.doICP(Convergence.defaults(), icpPoints);
+            });
+            RawScan scan = ScanParser.parse(new File(dir, name+".txt"), ICPLog.SILENT);
+            Bench.run("track/revolutions/"+name, () -> new PoseTracker(ICPLog.SILENT).track(scan));
+        }
+
+        if (outFile != null) {
+            Map<String, String> params = new LinkedHashMap<>();
+            params.put("java.version", System.getProperty("java.version"));
+            params.put("java.vm.name", System.getProperty("java.vm.name"));
+            params.put("os.arch", System.getProperty("os.arch"));
+            params.put("cores", Integer.toString(Runtime.getRuntime().availableProcessors()));
+            params.put("seed", Long.toString(SEED));
+            params.put("warmupRounds", Integer.toString(Bench.warmupRounds));
+            params.put("measureRounds", Integer.toString(Bench.measureRounds));
+            params.put("roundNanos", Long.toString(Bench.roundNanos));
+            Bench.writeJSON(new File(outFile), params);
+            System.out.println("Wrote "+outFile);
+        }
+    }
+}
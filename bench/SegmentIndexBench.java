@@ -0,0 +1,68 @@
+import java.util.Random;
+
+/**
+ * Nearest-segment query cost with and without SegmentIndex, for reference
+ * models of increasing size (random wall segments in a 50 m square), plus a
+ * check that both give the same answers.
+ * Usage: java SegmentIndexBench
+ */
+public class SegmentIndexBench {
+
+    static final int NUM_QUERIES = 1000;
+
+    public static void main(String[] args) throws Exception {
+        Random rand = new Random(42);
+        double[] qx = new double[NUM_QUERIES], qy = new double[NUM_QUERIES];
+        for (int i = 0; i < NUM_QUERIES; i++) {
+            qx[i] = rand.nextDouble()*50000 - 25000;
+            qy[i] = rand.nextDouble()*50000 - 25000;
+        }
+
+        for (int n : new int[] {1, 10, 100, 1000, 10000}) {
+            Segment[] ss = randomWalls(n, rand);
+            SegmentIndex index = new SegmentIndex(ss);
+            for (int i = 0; i < NUM_QUERIES; i++) {
+                double dLinear = linear(ss, qx[i], qy[i]).getDistanceSq(qx[i], qy[i]);
+                double dIndex = index.getClosestSegment(qx[i], qy[i]).getDistanceSq(qx[i], qy[i]);
+                if (dLinear != dIndex) throw new AssertionError("index disagrees with linear scan");
+            }
+
+            System.out.println("== "+n+" segments");
+            Bench.Result lin = Bench.run("linear scan", () -> {
+                double sum = 0;
+                for (int i = 0; i < NUM_QUERIES; i++) sum += linear(ss, qx[i], qy[i]).tMax;
+                return sum;
+            });
+            Bench.Result idx = Bench.run("SegmentIndex", () -> {
+                double sum = 0;
+                for (int i = 0; i < NUM_QUERIES; i++) sum += index.getClosestSegment(qx[i], qy[i]).tMax;
+                return sum;
+            });
+            System.out.printf("  per query: linear %.3f us, indexed %.3f us%n",
+                              lin.medianNanos/1e3/NUM_QUERIES, idx.medianNanos/1e3/NUM_QUERIES);
+        }
+    }
+
+    static Segment[] randomWalls(int n, Random rand) {
+        Segment[] ss = new Segment[n];
+        for (int i = 0; i < n; i++) {
+            double x = rand.nextDouble()*50000 - 25000, y = rand.nextDouble()*50000 - 25000;
+            double a = rand.nextDouble()*2*Math.PI, len = 200 + rand.nextDouble()*2000;
+            ss[i] = new Segment(Point.fromRect(x, y), Point.fromRect(x + len*Math.cos(a), y + len*Math.sin(a)));
+        }
+        return ss;
+    }
+
+    static Segment linear(Segment[] ss, double x, double y) {
+        double minDist = Double.POSITIVE_INFINITY;
+        Segment minSeg = null;
+        for (Segment s : ss) {
+            double dist = s.getDistanceSq(x, y);
+            if (dist < minDist) {
+                minDist = dist;
+                minSeg = s;
+            }
+        }
+        return minSeg;
+    }
+}
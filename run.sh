@@ -1,4 +1,4 @@
 #!/bin/zsh
 clear
 rm bin/*.class
-$JAVA_HOME/bin/javac -d bin/ src/*.java && cp -r data/ bin/ && cd bin/ && java Display
+$JAVA_HOME/bin/javac -d bin/ src/*.java && cp -r data/ bin/ && java -cp bin/ ScanFile bin/data/*.txt > /dev/null && cd bin/ && java Display
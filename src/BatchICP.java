@@ -0,0 +1,239 @@
+import java.io.*;
+import java.util.*;
+
+/**
+ * Headless batch registration: runs ICP over any number of scan files
+ * without touching Swing, and writes the transforms and tower midpoints
+ * as CSV and/or JSON (where NaN and infinite values, which JSON can't
+ * express, are written as null).
+ *
+ * Usage: java BatchICP [-n iters] [-exact] [-budget ms] [-p] [-df res]
+ *                       [-kernel name[:param]] [-line] [-seed average|correlative]
+ *                       [-map map.lgrid] [-filter spec] [-csv out.csv] [-json out.json]
+ *                       [-v] scan.txt...
+ *
+ * By default ICP stops once it converges (Convergence.defaults()); -exact
+ * only stops when the transform doesn't change at all, like the display
+ * used to. -kernel picks the RobustKernel (hard, huber, tukey, cauchy or
+ * trimmed:fraction), and -line minimizes point-to-line distances instead
+ * of point-to-point ones (ICP.Metric). ICP starts from the mean ICP point
+ * without any rotation, or with -seed correlative from the pose a
+ * CorrelativeMatcher finds (a global guess for scans the mean point doesn't
+ * work for, at 30 to 90 ms a scan on top of ICP's few). -map registers
+ * every point in the map's range, not just the tower box, against the
+ * occupied cells of an OccupancyGrid instead of the tower's segments (a
+ * -filter roi stage narrows that down); it doesn't go with -seed
+ * correlative, which only knows the tower.
+ * -filter runs each scan (merged, in theta order) through a ScanFilter
+ * chain, e.g. "shadow:10,voxel:20", before the ICP points are picked.
+ */
+public class BatchICP {
+
+    public static final double FIELD_MARGIN = 3000; // mm around the reference model covered by -df
+
+    public static class Result {
+        public final String file;
+        public final int numPoints, numICPPoints, numRevs;
+        public final Transform trans;
+        public final ICPResult icp;
+        public final Point midpoint;
+        public final double millis;
+
+        public Result(String file, int numPoints, int numICPPoints, int numRevs,
+                      ICPResult icp, Point midpoint, double millis) {
+            this.file = file;
+            this.numPoints = numPoints;
+            this.numICPPoints = numICPPoints;
+            this.numRevs = numRevs;
+            this.trans = icp.trans;
+            this.icp = icp;
+            this.midpoint = midpoint;
+            this.millis = millis;
+        }
+    }
+
+    public static Result register(File file, Convergence conv, boolean parallel, DistanceField field,
+                                  OccupancyGrid map, RobustKernel kernel, ICP.Metric metric, CorrelativeMatcher matcher,
+                                  ScanFilter filter, ICPLog log) throws IOException {
+        long startTime = System.nanoTime();
+        ScanLoader loader = new ScanLoader(log);
+        ArrayList<Point> points = loader.load(file);
+        List<Point> candidates = points;
+        if (filter != null) {
+            PointCloud filtered = filter.apply(PointCloud.of(points));
+            candidates = new ArrayList<>(filtered.size);
+            for (int i = 0; i < filtered.size; i++) candidates.add(filtered.getPoint(i));
+        }
+        // against the tower only its box is registered; against a map, everything in range
+        // (which a -filter roi can narrow down)
+        ArrayList<Point> icpPoints = new ArrayList<>(), towerPoints = new ArrayList<>();
+        for (Point p : candidates) {
+            boolean tower = ICP.keepPointForICP(p);
+            if (tower) towerPoints.add(p);
+            if (p.isICP = map == null? tower : p.dist <= map.maxRange) icpPoints.add(p);
+        }
+        if (icpPoints.isEmpty()) {
+            throw new IOException("no points in the ICP region");
+        }
+
+        // the map is in the tower's frame, so the tower box's mean point is a fair first guess either way
+        ICP icp = new ICP(log, ICP.getAveragePoint(towerPoints.isEmpty()? icpPoints : towerPoints));
+        if (matcher != null) {
+            Transform seed = matcher.match(icpPoints);
+            if (seed != null) icp.icpTrans = seed;
+        }
+        icp.parallel = parallel;
+        icp.distanceField = field;
+        icp.map = map;
+        icp.kernel = kernel;
+        icp.metric = metric;
+        ICPResult result = icp.doICP(conv, icpPoints);
+        if (result.stop == ICPResult.Stop.NO_INLIERS) {
+            throw new IOException("ICP lost all inliers");
+        }
+        Point mid = icp.transReference.segments[0].getMidpoint();
+        double millis = (System.nanoTime() - startTime) / 1e6;
+        return new Result(file.getPath(), points.size(), icpPoints.size(), loader.numRevs,
+                          result, mid, millis);
+    }
+
+    public static void writeCSV(PrintWriter out, List<Result> results) {
+        out.println("file,points,icp_points,revolutions,theta_deg,tx,ty,mid_x,mid_y,millis,"+
+                    "iterations,stop,mean_error,inliers");
+        for (Result r : results) {
+            out.println(csvString(r.file)+","+r.numPoints+","+r.numICPPoints+","+r.numRevs+","+
+                        Math.toDegrees(r.trans.theta)+","+r.trans.tx+","+r.trans.ty+","+
+                        r.midpoint.x+","+r.midpoint.y+","+r.millis+","+
+                        r.icp.iterations+","+r.icp.stop+","+r.icp.meanError+","+r.icp.inliers);
+        }
+        out.flush();
+    }
+
+    public static void writeJSON(PrintWriter out, List<Result> results) {
+        out.println("[");
+        for (int i = 0; i < results.size(); i++) {
+            Result r = results.get(i);
+            out.print("  {\"file\": "+jsonString(r.file)+
+                      ", \"points\": "+r.numPoints+
+                      ", \"icp_points\": "+r.numICPPoints+
+                      ", \"revolutions\": "+r.numRevs+
+                      ", \"theta_deg\": "+jsonNumber(Math.toDegrees(r.trans.theta))+
+                      ", \"tx\": "+jsonNumber(r.trans.tx)+
+                      ", \"ty\": "+jsonNumber(r.trans.ty)+
+                      ", \"mid_x\": "+jsonNumber(r.midpoint.x)+
+                      ", \"mid_y\": "+jsonNumber(r.midpoint.y)+
+                      ", \"millis\": "+jsonNumber(r.millis)+
+                      ", \"iterations\": "+r.icp.iterations+
+                      ", \"stop\": \""+r.icp.stop+"\""+
+                      ", \"mean_error\": "+jsonNumber(r.icp.meanError)+
+                      ", \"inliers\": "+r.icp.inliers+"}");
+            out.println(i+1 < results.size()? "," : "");
+        }
+        out.println("]");
+        out.flush();
+    }
+
+    static String csvString(String str) {
+        if (str.indexOf(',') < 0 && str.indexOf('"') < 0) return str;
+        return "\""+str.replace("\"", "\"\"")+"\"";
+    }
+
+    // JSON has no NaN or infinities (a degenerate fit can give them), so those are written as null
+    static String jsonNumber(double d) {
+        return Double.isFinite(d)? Double.toString(d) : "null";
+    }
+
+    static String jsonString(String str) {
+        StringBuilder sb = new StringBuilder("\"");
+        for (char c : str.toCharArray()) {
+            if (c == '"' || c == '\\') sb.append('\\').append(c);
+            else if (c < 0x20) sb.append(String.format("\\u%04x", (int)c));
+            else sb.append(c);
+        }
+        return sb.append('"').toString();
+    }
+
+    static void usage() {
+        System.err.println("usage: java BatchICP [-n iters] [-exact] [-budget ms] [-p] [-df res] [-kernel name[:param]] [-line] [-seed average|correlative] [-map map.lgrid] [-filter spec] [-csv out.csv] [-json out.json] [-v] scan.txt...");
+        System.exit(2);
+    }
+
+    public static void main(String[] args) throws IOException {
+        System.setProperty("java.awt.headless", "true");
+
+        Convergence conv = Convergence.defaults();
+        boolean exact = false;
+        double budget = 0;
+        String csvFile = null, jsonFile = null;
+        boolean verbose = false, parallel = false;
+        double fieldRes = 0;
+        RobustKernel kernel = RobustKernel.HARD;
+        ICP.Metric metric = ICP.Metric.POINT_TO_POINT;
+        boolean correlativeSeed = false;
+        String mapFile = null;
+        ScanFilter filter = null;
+        List<File> files = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.equals("-n") && i+1 < args.length) conv.maxIterations = Integer.parseInt(args[++i]);
+            else if (arg.equals("-exact")) exact = true;
+            else if (arg.equals("-budget") && i+1 < args.length) budget = Double.parseDouble(args[++i]);
+            else if (arg.equals("-csv") && i+1 < args.length) csvFile = args[++i];
+            else if (arg.equals("-json") && i+1 < args.length) jsonFile = args[++i];
+            else if (arg.equals("-p")) parallel = true;
+            else if (arg.equals("-df") && i+1 < args.length) fieldRes = Double.parseDouble(args[++i]);
+            else if (arg.equals("-kernel") && i+1 < args.length) kernel = RobustKernel.parse(args[++i]);
+            else if (arg.equals("-line")) metric = ICP.Metric.POINT_TO_LINE;
+            else if (arg.equals("-seed") && i+1 < args.length) {
+                String seed = args[++i];
+                if (seed.equals("correlative")) correlativeSeed = true;
+                else if (!seed.equals("average")) usage();
+            }
+            else if (arg.equals("-map") && i+1 < args.length) mapFile = args[++i];
+            else if (arg.equals("-filter") && i+1 < args.length) filter = ScanFilter.parse(args[++i]);
+            else if (arg.equals("-v")) verbose = true;
+            else if (arg.startsWith("-")) usage();
+            else files.add(new File(arg));
+        }
+        if (files.isEmpty() || (mapFile != null && correlativeSeed)) usage();
+        if (exact) conv = Convergence.iterations(conv.maxIterations);
+        if (budget > 0) conv.withTimeBudget(budget);
+
+        ICPLog log = verbose? ICPLog.STDOUT : ICPLog.SILENT;
+        DistanceField field = null;
+        if (fieldRes > 0) {
+            field = DistanceField.around(ReferenceModel.TOWER, FIELD_MARGIN, fieldRes);
+            System.err.println(field.getStats(100000, new Random(0)));
+        }
+        OccupancyGrid map = mapFile == null? null : OccupancyGrid.read(new File(mapFile));
+        CorrelativeMatcher matcher = correlativeSeed? new CorrelativeMatcher(ReferenceModel.TOWER) : null;
+        List<Result> results = new ArrayList<>();
+        int failures = 0;
+        for (int i = 0; i < files.size(); i++) {
+            File f = files.get(i);
+            try {
+                Result r = register(f, conv, parallel, field, map, kernel, metric, matcher, filter, log);
+                results.add(r);
+                System.err.println("["+(i+1)+"/"+files.size()+"] "+f+": "+r.icp);
+            } catch (IOException | RuntimeException e) {
+                failures++;
+                System.err.println("["+(i+1)+"/"+files.size()+"] "+f+": FAILED ("+e.getMessage()+")");
+            }
+        }
+
+        if (csvFile == null && jsonFile == null) {
+            writeCSV(new PrintWriter(System.out), results);
+        }
+        if (csvFile != null) {
+            try (PrintWriter out = new PrintWriter(new FileWriter(csvFile))) {
+                writeCSV(out, results);
+            }
+        }
+        if (jsonFile != null) {
+            try (PrintWriter out = new PrintWriter(new FileWriter(jsonFile))) {
+                writeJSON(out, results);
+            }
+        }
+        if (failures > 0) System.exit(1);
+    }
+}
@@ -0,0 +1,162 @@
+import java.awt.Color;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Keeps the projected point cloud rasterized in an off-screen image, and
+ * only redraws it when the view, the data, or the drawing flags change.
+ * Points are written straight into the image's int[] raster.
+ *
+ * When the whole cloud is shown, only the points a PointQuadtree picks for
+ * the current scale are drawn (about one per lodPixels square), so zooming
+ * out over a huge cloud costs no more than the screen is big.
+ */
+public class CloudRenderer {
+
+    private BufferedImage image;
+    private int[] raster;
+    private int width, height;
+
+    // what the cached image shows
+    private double scale, camX, camY;
+    private int centerX, centerY;
+    private List<Point> points;
+    private int dataVersion = -1;
+    private int flags = -1;
+
+    private int[] xPts = new int[0], yPts = new int[0];
+    private final int[][] drawn = {new int[0]};
+
+    private PointQuadtree lod;
+    private List<Point> lodPoints;
+    private int lodSize;
+
+    public static final int DRAW_FRAMES = 1, DRAW_ICP = 2, DRAW_DEBUG_ICP = 4, DRAW_CONNECT = 8;
+
+    public int radius = 2;
+    public double lodPixels = 1; // screen size of the coarsest quadtree cell drawn as a single point
+    public int rasterizations; // for the curious: how often the cache was rebuilt
+    public int pointsDrawn;    // by the last rasterization
+
+    /**
+     * Draws the cloud as seen with the given camera. dataVersion must change
+     * whenever the points (or their good/isICP flags, or the pairs) change.
+     */
+    public void draw(Graphics g, int w, int h, double scale, double camX, double camY,
+                     List<Point> points, List<ICP.PointPair> pairs, Transform pairTrans,
+                     int dataVersion, int flags, int drawRev) {
+        int key = flags | ((flags & DRAW_FRAMES) != 0? drawRev << 4 : 0);
+        if (image == null || w != width || h != height) {
+            width = Math.max(w, 1);
+            height = Math.max(h, 1);
+            image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            raster = ((DataBufferInt)image.getRaster().getDataBuffer()).getData();
+            this.dataVersion = -1;
+        }
+        if (scale != this.scale || camX != this.camX || camY != this.camY ||
+            points != this.points || dataVersion != this.dataVersion || key != this.flags) {
+            this.scale = scale;
+            this.camX = camX;
+            this.camY = camY;
+            this.centerX = w/2;
+            this.centerY = h/2;
+            this.points = points;
+            this.dataVersion = dataVersion;
+            this.flags = key;
+            rasterize(points, pairs, pairTrans, flags, drawRev);
+            rasterizations++;
+        }
+        g.drawImage(image, 0, 0, null);
+    }
+
+    private int projectX(double x) {
+        return (int)((x-camX) * scale + centerX);
+    }
+
+    private int projectY(double y) {
+        return (int)(-(y-camY) * scale + centerY);
+    }
+
+    private void rasterize(List<Point> points, List<ICP.PointPair> pairs, Transform pairTrans, int flags, int drawRev) {
+        Arrays.fill(raster, 0xFF000000);
+        boolean drawFrames = (flags & DRAW_FRAMES) != 0;
+        boolean drawICP = (flags & DRAW_ICP) != 0;
+        boolean debugICP = (flags & DRAW_DEBUG_ICP) != 0;
+
+        Graphics2D g = null;
+        if (drawICP && debugICP && pairs != null) {
+            g = image.createGraphics();
+            g.setColor(Color.RED);
+            for (ICP.PointPair pair : pairs) {
+                Point b = pairTrans.apply(pair.b);
+                g.drawLine(projectX(pair.a.x), projectY(pair.a.y), projectX(b.x), projectY(b.y));
+            }
+        }
+
+        if (xPts.length < points.size()) {
+            xPts = new int[points.size()];
+            yPts = new int[points.size()];
+        }
+        if ((flags & DRAW_CONNECT) != 0) {
+            // the outline keeps scan order, so it can't use the quadtree; it
+            // just drops vertices that land on the same pixel as the last one
+            int numPts = 0;
+            for (Point p : points) {
+                if (drawFrames && p.revNum != drawRev) continue;
+                int x = projectX(p.x), y = projectY(p.y);
+                if (numPts > 0 && x == xPts[numPts-1] && y == yPts[numPts-1]) continue;
+                xPts[numPts] = x;
+                yPts[numPts] = y;
+                numPts++;
+            }
+            if (g == null) g = image.createGraphics();
+            g.setColor(Color.DARK_GRAY);
+            g.drawPolygon(xPts, yPts, numPts);
+        }
+        if (g != null) g.dispose();
+
+        final int white = Color.WHITE.getRGB(), gray = Color.DARK_GRAY.getRGB(), green = Color.GREEN.getRGB();
+        pointsDrawn = 0;
+        if (drawFrames) {
+            // a single revolution is small enough to draw in full
+            for (Point p : points) {
+                if (p.revNum != drawRev) continue;
+                fillSquare(projectX(p.x), projectY(p.y), getColor(p, drawICP, debugICP, white, gray, green));
+                pointsDrawn++;
+            }
+            return;
+        }
+        if (lod == null || points != lodPoints || points.size() != lodSize) {
+            lod = new PointQuadtree(points);
+            lodPoints = points;
+            lodSize = points.size();
+        }
+        double margin = (radius + 1) / scale;
+        double x0 = camX - centerX/scale - margin, x1 = camX + (width - centerX)/scale + margin;
+        double y0 = camY - (height - centerY)/scale - margin, y1 = camY + centerY/scale + margin;
+        int n = lod.query(x0, y0, x1, y1, lodPixels / scale, drawn);
+        int[] idx = drawn[0];
+        for (int k = 0; k < n; k++) {
+            Point p = points.get(idx[k]);
+            fillSquare(projectX(p.x), projectY(p.y), getColor(p, drawICP, debugICP, white, gray, green));
+        }
+        pointsDrawn = n;
+    }
+
+    private static int getColor(Point p, boolean drawICP, boolean debugICP, int white, int gray, int green) {
+        return drawICP? p.isICP? p.good && debugICP? green : white : gray : white;
+    }
+
+    private void fillSquare(int x, int y, int color) {
+        int x0 = Math.max(x - radius, 0), x1 = Math.min(x + radius, width);
+        int y0 = Math.max(y - radius, 0), y1 = Math.min(y + radius, height);
+        for (int yy = y0; yy < y1; yy++) {
+            int row = yy*width;
+            for (int xx = x0; xx < x1; xx++) raster[row + xx] = color;
+        }
+    }
+}
@@ -0,0 +1,44 @@
+/**
+ * When ICP.doICP stops iterating. Whichever limit is hit first wins; a
+ * criterion set to 0 (or the max value, for the limits) is effectively off.
+ */
+public class Convergence {
+
+    public int maxIterations = 5000;
+    public double epsTranslation = 0; // mm the transform moved in the last iteration
+    public double epsRotation = 0;    // radians it turned
+    public double epsResidual = 0;    // relative change in the mean point-to-model distance
+    public long timeBudgetNanos = Long.MAX_VALUE;
+
+    /** Run up to the given number of iterations, stopping early only when the transform stops changing at all. */
+    public static Convergence iterations(int maxIterations) {
+        Convergence c = new Convergence();
+        c.maxIterations = maxIterations;
+        return c;
+    }
+
+    /**
+     * Stop once the pose moves less than a micrometer and a microradian in
+     * an iteration, or once the mean point-to-model distance changes by less
+     * than 1e-9 of itself (ICPResult.Stop.RESIDUAL), whichever comes first;
+     * at most 5000 iterations either way.
+     */
+    public static Convergence defaults() {
+        Convergence c = new Convergence();
+        c.epsTranslation = 1e-3;
+        c.epsRotation = 1e-6;
+        c.epsResidual = 1e-9;
+        return c;
+    }
+
+    public Convergence withTimeBudget(double millis) {
+        timeBudgetNanos = (long)(millis * 1e6);
+        return this;
+    }
+
+    public String toString() {
+        return "Convergence(max "+maxIterations+" iters, dT <= "+epsTranslation+" mm, dTheta <= "+
+               epsRotation+" rad, dResidual <= "+epsResidual+
+               (timeBudgetNanos == Long.MAX_VALUE? "" : ", budget "+timeBudgetNanos/1e6+" ms")+")";
+    }
+}
@@ -0,0 +1,226 @@
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.PriorityQueue;
+
+/**
+ * Global initial guess for ICP: correlative scan matching with
+ * multi-resolution branch and bound.
+ *
+ * The reference model is rasterized once into a lookup table that scores a
+ * point by how close it is to the model (a Gaussian of the distance), and
+ * the table is max-pooled into a pyramid whose level l holds, for every
+ * cell, the best score within the 2^l by 2^l cells above it. A pose scores
+ * the sum of its points' table values. The search covers every rotation in
+ * [-maxRotation, maxRotation] (in steps that move the farthest point about a
+ * cell) and every translation in the window, best-first: a block of 2^l by
+ * 2^l translations at one rotation is bounded by its level-l score, and
+ * blocks that can't beat the best single pose found so far are never
+ * split. The result is the best pose on the grid, within a cell and a
+ * rotation step of the optimum, for ICP to refine.
+ *
+ * Poses are the same as ICP's: the transform takes the model into the
+ * sensor frame, so its translation is where the model's origin is.
+ *
+ * Building the table is the expensive part; match() only reads it and keeps
+ * no state of its own, so one matcher can be shared between threads. A
+ * match is still far from free: on the bundled scans (about 330 ICP points)
+ * it scores 30 to 75 thousand blocks and takes 30 to 90 ms, ten to a
+ * hundred times as long as the ICP it seeds, so it's meant for when there's
+ * no better guess, not for every scan.
+ */
+public class CorrelativeMatcher {
+
+    public final ReferenceModel model;
+    public final double res, sigma; // mm
+    public final double minX, minY; // corner of the lookup table, in the model frame
+    public final int width, height; // in cells
+    private final float[][] levels; // levels[l][(cy+off)*(width+off) + cx+off], off = 2^l - 1
+
+    // the window searched for the model's origin, in the sensor frame, and the rotations
+    public double windowMinX = 6000, windowMaxX = 8000, windowMinY = -7000, windowMaxY = 7000;
+    public double maxRotation = Math.PI/2; // a lone segment (like the tower face) looks the same turned by pi
+    public int maxPoints = 500;            // scans with more points are evenly subsampled
+    public int minPoints = 10;             // with fewer, any pose fits about as well as any other
+
+    public static final int MAX_LEVEL = 8;
+
+    public CorrelativeMatcher(ReferenceModel model, double res, double sigma) {
+        this.model = model;
+        this.res = res;
+        this.sigma = sigma;
+        double margin = 3*sigma;
+        double x0 = Double.POSITIVE_INFINITY, y0 = Double.POSITIVE_INFINITY;
+        double x1 = Double.NEGATIVE_INFINITY, y1 = Double.NEGATIVE_INFINITY;
+        for (Segment s : model.segments) {
+            for (Point p : new Point[] {s.pMin, s.pMax}) {
+                x0 = Math.min(x0, p.x); x1 = Math.max(x1, p.x);
+                y0 = Math.min(y0, p.y); y1 = Math.max(y1, p.y);
+            }
+        }
+        minX = x0 - margin;
+        minY = y0 - margin;
+        width = Math.max(1, (int)Math.ceil((x1 + margin - minX) / res));
+        height = Math.max(1, (int)Math.ceil((y1 + margin - minY) / res));
+
+        levels = new float[MAX_LEVEL+1][];
+        float[] table = new float[width*height];
+        double[] outX = new double[1], outY = new double[1];
+        for (int j = 0; j < height; j++) {
+            for (int i = 0; i < width; i++) {
+                double x = minX + (i+0.5)*res, y = minY + (j+0.5)*res;
+                model.getClosestSegment(x, y).getClosestPoint(x, y, outX, outY, 0);
+                double dx = x - outX[0], dy = y - outY[0], d2 = dx*dx + dy*dy;
+                table[j*width + i] = d2 > margin*margin? 0 : (float)Math.exp(-d2 / (2*sigma*sigma));
+            }
+        }
+        levels[0] = table;
+        for (int l = 1; l <= MAX_LEVEL; l++) levels[l] = pool(levels[l-1], l);
+    }
+
+    /** The default for the tower: 20 mm cells, 40 mm of spread. */
+    public CorrelativeMatcher(ReferenceModel model) {
+        this(model, 20, 40);
+    }
+
+    // level l from level l-1: the max of the four level l-1 blocks at offsets 0 and 2^(l-1)
+    private float[] pool(float[] prev, int l) {
+        int prevOff = (1 << (l-1)) - 1, off = (1 << l) - 1, half = 1 << (l-1);
+        int pw = width + prevOff, ph = height + prevOff;
+        int w = width + off, h = height + off;
+        float[] out = new float[w*h];
+        for (int j = 0; j < h; j++) {
+            int cy = j - off;
+            for (int i = 0; i < w; i++) {
+                int cx = i - off;
+                float m = 0;
+                for (int dy = 0; dy <= half; dy += half) {
+                    int py = cy + dy + prevOff;
+                    if (py < 0 || py >= ph) continue;
+                    for (int dx = 0; dx <= half; dx += half) {
+                        int px = cx + dx + prevOff;
+                        if (px >= 0 && px < pw) m = Math.max(m, prev[py*pw + px]);
+                    }
+                }
+                out[j*w + i] = m;
+            }
+        }
+        return out;
+    }
+
+    // one block of translations [ux, ux+2^level) x [uy, uy+2^level) (in cells) at one rotation
+    private static final class Node implements Comparable<Node> {
+        final double bound;
+        final int rot, ux, uy, level;
+
+        Node(double bound, int rot, int ux, int uy, int level) {
+            this.bound = bound;
+            this.rot = rot;
+            this.ux = ux;
+            this.uy = uy;
+            this.level = level;
+        }
+
+        public int compareTo(Node o) {
+            // best first; among equal bounds, finer blocks first so ties end the search sooner
+            int c = Double.compare(o.bound, bound);
+            return c != 0? c : Integer.compare(level, o.level);
+        }
+    }
+
+    public Transform match(Collection<Point> points) {
+        return match(PointCloud.of(new ArrayList<>(points)));
+    }
+
+    /** The best pose of the model given the points, or null if there are fewer than minPoints. */
+    public Transform match(PointCloud points) {
+        if (points.size < Math.max(1, minPoints)) return null;
+        int step = Math.max(1, (points.size + maxPoints-1) / maxPoints);
+        int n = (points.size + step-1) / step;
+        double[] xs = new double[n], ys = new double[n];
+        double maxRange = res;
+        for (int i = 0; i < n; i++) {
+            xs[i] = points.x[i*step];
+            ys[i] = points.y[i*step];
+            maxRange = Math.max(maxRange, Math.hypot(xs[i], ys[i]));
+        }
+
+        // the rotations, and each point's table cell at each of them (with no translation)
+        double rotStep = res / maxRange;
+        int numRots = 2*(int)Math.ceil(maxRotation / rotStep) + 1;
+        double[] thetas = new double[numRots];
+        int[][] cellX = new int[numRots][n], cellY = new int[numRots][n];
+        int[] uMinX = new int[numRots], uMaxX = new int[numRots], uMinY = new int[numRots], uMaxY = new int[numRots];
+        for (int r = 0; r < numRots; r++) {
+            double theta = numRots == 1? 0 : -maxRotation + 2*maxRotation*r/(numRots-1);
+            thetas[r] = theta;
+            // a sensor point a lands in the model frame at R(-theta)(a - t) = R(-theta)a + u,
+            // so for each rotation the search is over the offset u = -R(-theta)t
+            double cos = Math.cos(theta), sin = Math.sin(theta);
+            for (int i = 0; i < n; i++) {
+                double bx = xs[i]*cos + ys[i]*sin, by = -xs[i]*sin + ys[i]*cos;
+                cellX[r][i] = (int)Math.floor((bx - minX) / res);
+                cellY[r][i] = (int)Math.floor((by - minY) / res);
+            }
+            double ax0 = Double.POSITIVE_INFINITY, ay0 = Double.POSITIVE_INFINITY;
+            double ax1 = Double.NEGATIVE_INFINITY, ay1 = Double.NEGATIVE_INFINITY;
+            for (int k = 0; k < 4; k++) {
+                double tx = (k & 1) == 0? windowMinX : windowMaxX, ty = (k & 2) == 0? windowMinY : windowMaxY;
+                double ux = -(tx*cos + ty*sin), uy = -(-tx*sin + ty*cos);
+                ax0 = Math.min(ax0, ux); ax1 = Math.max(ax1, ux);
+                ay0 = Math.min(ay0, uy); ay1 = Math.max(ay1, uy);
+            }
+            uMinX[r] = (int)Math.floor(ax0 / res);
+            uMaxX[r] = (int)Math.ceil(ax1 / res);
+            uMinY[r] = (int)Math.floor(ay0 / res);
+            uMaxY[r] = (int)Math.ceil(ay1 / res);
+        }
+
+        // start from blocks about the size of the window (so there are a few per rotation)
+        int span = Math.max(uMaxX[0] - uMinX[0], uMaxY[0] - uMinY[0]) + 1;
+        int top = 0;
+        while (top < MAX_LEVEL && (1 << top) < span/4) top++;
+        PriorityQueue<Node> queue = new PriorityQueue<>();
+        for (int r = 0; r < numRots; r++) {
+            for (int uy = uMinY[r]; uy <= uMaxY[r]; uy += 1 << top) {
+                for (int ux = uMinX[r]; ux <= uMaxX[r]; ux += 1 << top) {
+                    queue.add(new Node(score(cellX[r], cellY[r], ux, uy, top), r, ux, uy, top));
+                }
+            }
+        }
+
+        // the first single pose off the queue is at least as good as any bound left in it
+        Node best = null;
+        while (!queue.isEmpty()) {
+            Node node = queue.poll();
+            if (node.level == 0) {
+                best = node;
+                break;
+            }
+            int l = node.level - 1, half = 1 << l, r = node.rot;
+            for (int dy = 0; dy <= half; dy += half) {
+                int uy = node.uy + dy;
+                if (uy > uMaxY[r]) continue;
+                for (int dx = 0; dx <= half; dx += half) {
+                    int ux = node.ux + dx;
+                    if (ux > uMaxX[r]) continue;
+                    queue.add(new Node(score(cellX[r], cellY[r], ux, uy, l), r, ux, uy, l));
+                }
+            }
+        }
+
+        double theta = thetas[best.rot], cos = Math.cos(theta), sin = Math.sin(theta);
+        double ux = best.ux*res, uy = best.uy*res;
+        return new Transform(theta, -(ux*cos - uy*sin), -(ux*sin + uy*cos), sin, cos);
+    }
+
+    private double score(int[] cx, int[] cy, int ux, int uy, int level) {
+        final float[] table = levels[level];
+        final int off = (1 << level) - 1, w = width + off, h = height + off;
+        double sum = 0;
+        for (int i = 0; i < cx.length; i++) {
+            int x = cx[i] + ux + off, y = cy[i] + uy + off;
+            if (x >= 0 && y >= 0 && x < w && y < h) sum += table[y*w + x];
+        }
+        return sum;
+    }
+}
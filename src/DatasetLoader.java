@@ -0,0 +1,296 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import javax.swing.SwingUtilities;
+
+/**
+ * Loads and registers datasets for the Display on a worker thread, so the
+ * event thread never parses or runs ICP.
+ *
+ * Each load or merge request cancels (interrupts) the one before it, and
+ * only the latest request's snapshot is ever published, on the event
+ * thread; ICP steps queue up behind whatever is running instead. Plain dataset
+ * loads are cached, and prefetch() builds them ahead of time on a low
+ * priority thread, so switching to one that's ready is instant.
+ *
+ * request(), step(), prefetch() and getStatus() are for the event thread.
+ */
+public class DatasetLoader {
+
+    private final String[] dataFiles;
+    private final ICPLog log;
+    public Convergence convergence = Convergence.defaults();
+    public double retryError = 50; // mm: a load whose inlier mean error is higher gets a global guess too
+
+    private final ExecutorService worker = Executors.newSingleThreadExecutor(r -> daemon(r, "loader", Thread.NORM_PRIORITY));
+    private final ExecutorService prefetcher = Executors.newSingleThreadExecutor(r -> daemon(r, "prefetch", Thread.MIN_PRIORITY));
+    private final ConcurrentHashMap<Integer, ViewSnapshot> cache = new ConcurrentHashMap<>();
+
+    private CorrelativeMatcher matcher; // built on first use, shared by the loader and prefetch threads
+    private Future<?> current;
+    private int generation;
+    private int pendingSteps; // asked for while current runs
+    private Consumer<ViewSnapshot> stepPublish;
+
+    // what the worker is doing, for the progress indicator
+    private volatile String status;
+    private volatile int iteration, iterations;
+
+    public DatasetLoader(String[] dataFiles, ICPLog log) {
+        this.dataFiles = dataFiles;
+        this.log = log;
+    }
+
+    private static Thread daemon(Runnable r, String name, int priority) {
+        Thread t = new Thread(r, name);
+        t.setDaemon(true);
+        t.setPriority(priority);
+        return t;
+    }
+
+    /**
+     * Shows dataset dataI (merged into base if base isn't null): publishes
+     * it right away if it's cached, otherwise once the worker is done.
+     */
+    public void request(int dataI, ViewSnapshot base, Consumer<ViewSnapshot> publish) {
+        if (base == null) {
+            ViewSnapshot cached = cache.get(dataI);
+            if (cached != null) {
+                cancel();
+                publish.accept(cached);
+                return;
+            }
+        }
+        String what = (base == null? "Loading " : "Merging ")+dataFiles[dataI];
+        submit(what, publish, progressLog -> {
+            if (base != null) return merge(base, dataI, progressLog);
+            ViewSnapshot s = load(dataI, convergence, progressLog);
+            if (!Thread.currentThread().isInterrupted()) cache.putIfAbsent(dataI, s);
+            return s;
+        });
+    }
+
+    /**
+     * Runs one more ICP iteration on top of base, or, if a load, merge or
+     * step is still running, on top of what that comes up with: steps asked
+     * for in the meantime are counted and run together in one job once it's
+     * published, rather than interrupting it and starting over from base.
+     */
+    public void step(ViewSnapshot base, Consumer<ViewSnapshot> publish) {
+        stepPublish = publish;
+        if (current != null) {
+            pendingSteps++;
+            return;
+        }
+        submitSteps(base, 1, publish);
+    }
+
+    private void submitSteps(ViewSnapshot base, int steps, Consumer<ViewSnapshot> publish) {
+        submit(steps == 1? "Stepping ICP" : "Stepping ICP "+steps+" times", publish, progressLog -> {
+            List<ArrayList<Point>> copies = base.copyPoints();
+            ArrayList<Point> points = copies.get(0), icpPoints = copies.get(1);
+            ICP icp = base.resumeICP(progressLog);
+            ICPResult result = icp.doICP(Convergence.iterations(steps), icpPoints);
+            // (an index over the copies: base's would find base's points, with base's flags)
+            return new ViewSnapshot(base.dataI, base.name, points, icpPoints, new PointIndex(points),
+                                    base.numRevs, base.cloud, icp, result);
+        });
+    }
+
+    /** Queues every dataset that isn't cached yet for loading in the background. */
+    public void prefetch() {
+        for (int i = 0; i < dataFiles.length; i++) {
+            final int dataI = i;
+            prefetcher.submit(() -> {
+                if (cache.containsKey(dataI)) return;
+                try {
+                    cache.putIfAbsent(dataI, load(dataI, convergence, ICPLog.SILENT));
+                } catch (IOException | RuntimeException e) {
+                    log.debug("Prefetching "+dataFiles[dataI]+" failed: "+e);
+                }
+            });
+        }
+    }
+
+    public boolean isCached(int dataI) {
+        return cache.containsKey(dataI);
+    }
+
+    /** What the worker is busy with (and how far it got), or null if it's idle. */
+    public String getStatus() {
+        String s = status;
+        if (s == null) return null;
+        int n = iteration, total = iterations;
+        return total > 0? s+"... ICP iteration "+n+"/"+total : s+"...";
+    }
+
+    private interface Job {
+        ViewSnapshot run(ICPLog progressLog) throws IOException;
+    }
+
+    private void cancel() {
+        generation++;
+        if (current != null) current.cancel(true);
+        current = null;
+        status = null;
+        pendingSteps = 0;
+    }
+
+    private void submit(String what, Consumer<ViewSnapshot> publish, Job job) {
+        cancel();
+        final int gen = generation;
+        status = what;
+        iteration = iterations = 0;
+        ICPLog progressLog = new ICPLog() {
+            public void debug(Object msg) {
+                log.debug(msg);
+            }
+            public void progress(int n, int total) {
+                iteration = n;
+                iterations = total;
+            }
+        };
+        current = worker.submit(() -> {
+            ViewSnapshot s;
+            try {
+                s = job.run(progressLog);
+            } catch (IOException | RuntimeException e) {
+                log.debug(what+" failed: "+e);
+                s = null;
+            }
+            if (Thread.currentThread().isInterrupted()) return; // superseded
+            final ViewSnapshot result = s;
+            SwingUtilities.invokeLater(() -> {
+                if (gen != generation) return;
+                current = null;
+                status = null;
+                if (result == null) {
+                    pendingSteps = 0;
+                    return;
+                }
+                publish.accept(result);
+                if (pendingSteps > 0) submitSteps(result, pendingSteps, stepPublish);
+            });
+        });
+    }
+
+    /**
+     * Loads dataset dataI and registers it from scratch, starting from the
+     * mean ICP point. Only if that doesn't converge, or converges to a poor
+     * fit (inlier mean error over retryError, as from a wrong local minimum),
+     * is it registered again from a CorrelativeMatcher's global guess (which
+     * costs ten times or more what ICP does), keeping whichever fits better.
+     */
+    public ViewSnapshot load(int dataI, Convergence conv, ICPLog log) throws IOException {
+        ScanLoader loader = new ScanLoader(log);
+        ArrayList<Point> points = loadPoints(dataFiles[dataI], loader);
+        ArrayList<Point> icpPoints = ICP.getICPPoints(points);
+        if (icpPoints.isEmpty()) throw new IOException("no points in the ICP region");
+        ICP icp = new ICP(log, ICP.getAveragePoint(icpPoints));
+        icp.parallel = true; // only kicks in for big (merged) clouds
+        ICPResult result = icp.doICP(conv, icpPoints);
+        log.debug(result);
+        if (needsRetry(result, conv) && !Thread.currentThread().isInterrupted()) {
+            Transform seed = getMatcher().match(icpPoints);
+            if (seed != null) {
+                ICP seeded = new ICP(log, ICP.getAveragePoint(icpPoints));
+                seeded.icpTrans = seed;
+                seeded.parallel = true;
+                boolean[] good = new boolean[icpPoints.size()]; // the first run's, should it stay
+                for (int i = 0; i < good.length; i++) good[i] = icpPoints.get(i).good;
+                ICPResult r = seeded.doICP(conv, icpPoints);
+                log.debug("correlative seed: "+r);
+                if (result.stop == ICPResult.Stop.NO_INLIERS ||
+                    (r.stop != ICPResult.Stop.NO_INLIERS && r.inlierMeanError < result.inlierMeanError)) {
+                    icp = seeded;
+                    result = r;
+                } else {
+                    for (int i = 0; i < good.length; i++) icpPoints.get(i).good = good[i];
+                }
+            }
+        }
+        FusedCloud cloud = new FusedCloud(Collections.singletonList(
+            new FusedCloud.Source(0, dataI, dataFiles[dataI], points.size(), icpPoints.size(), loader.numRevs, result)));
+        return new ViewSnapshot(dataI, dataFiles[dataI], points, icpPoints, new PointIndex(points),
+                                loader.numRevs, cloud, icp, result);
+    }
+
+    private boolean needsRetry(ICPResult result, Convergence conv) {
+        if (conv.maxIterations == 0) return false; // single-step mode: there's nothing to judge yet
+        return result.stop == ICPResult.Stop.NO_INLIERS || result.stop == ICPResult.Stop.MAX_ITERATIONS ||
+               result.stop == ICPResult.Stop.TIME_BUDGET || result.inlierMeanError > retryError;
+    }
+
+    private synchronized CorrelativeMatcher getMatcher() {
+        if (matcher == null) matcher = new CorrelativeMatcher(ReferenceModel.TOWER);
+        return matcher;
+    }
+
+    /**
+     * Adds dataset dataI to base. Only the new scan is registered (starting
+     * from base's estimate) and the new points are merged into base's sorted
+     * ones. base's points are copied, since the flags are redone: one
+     * correspondence pass over all the ICP points at the fused transform
+     * sets every point's good flag and gives the pairs to draw, so both
+     * match the transform the view shows.
+     */
+    public ViewSnapshot merge(ViewSnapshot base, int dataI, ICPLog log) throws IOException {
+        ScanLoader loader = new ScanLoader(log);
+        ArrayList<Point> newPoints = loadPoints(dataFiles[dataI], loader);
+        int sourceI = base.cloud.sources.size();
+        for (Point p : newPoints) p.source = sourceI;
+        ArrayList<Point> newICPPoints = ICP.getICPPoints(newPoints);
+        if (newICPPoints.isEmpty()) throw new IOException("no points in the ICP region");
+
+        ICP icp = new ICP(log, Point.fromRect(base.trans.tx, base.trans.ty));
+        icp.icpTrans = base.trans;
+        ICPResult result = icp.doICP(convergence, newICPPoints);
+        log.debug(result);
+        if (Thread.currentThread().isInterrupted()) return null;
+
+        FusedCloud cloud = base.cloud.plus(new FusedCloud.Source(
+            sourceI, dataI, dataFiles[dataI], newPoints.size(), newICPPoints.size(), loader.numRevs, result));
+        List<ArrayList<Point>> copies = base.copyPoints();
+        ArrayList<Point> points = FusedCloud.mergeSorted(copies.get(0), newPoints);
+        ArrayList<Point> icpPoints = copies.get(1);
+        icpPoints.addAll(newICPPoints);
+        Transform trans = cloud.trans;
+        ICP pass = new ICP(log, Point.fromRect(trans.tx, trans.ty));
+        pass.icpTrans = trans;
+        pass.lastMean = icp.lastMean; // for the same outlier threshold
+        pass.parallel = true;
+        pass.doICP(Convergence.iterations(0), icpPoints);
+        return new ViewSnapshot(dataI, dataFiles[dataI], points, icpPoints, new PointIndex(points),
+                                Math.max(base.numRevs, loader.numRevs), cloud,
+                                trans, trans.apply(icp.reference), pass.getPairs(),
+                                icp.dbgLength, icp.lastMean, result);
+    }
+
+    public static ArrayList<Point> loadPoints(String dataFile, ScanLoader loader) throws IOException {
+        // use the converted binary scan when there is one on disk (see ScanFile), unless the text
+        // next to it was edited after it was converted
+        java.net.URL bin = Display.class.getResource("data/"+dataFile+ScanFile.EXTENSION);
+        java.net.URL text = Display.class.getResource("data/"+dataFile+".txt");
+        if (bin != null && bin.getProtocol().equals("file")) {
+            try {
+                File binFile = new File(bin.toURI());
+                File textFile = text != null && text.getProtocol().equals("file")? new File(text.toURI()) : null;
+                if (textFile == null || ScanFile.isUpToDate(binFile, textFile)) return loader.load(binFile);
+            } catch (java.net.URISyntaxException e) {
+                throw new IOException(e);
+            }
+        }
+        java.io.InputStream in = Display.class.getResourceAsStream("data/"+dataFile+".txt");
+        if (in == null) throw new IOException("no data file "+dataFile);
+        try (java.io.InputStream stream = in) {
+            return loader.load(stream);
+        }
+    }
+}
@@ -11,7 +11,7 @@ import java.io.*;
 import java.awt.geom.*;
 import java.util.*;
 
-public class Display extends JPanel {
+public class Display extends JPanel implements ICPLog {
     private final int width         = 15000;
     private final int height        = 15000;
     private       int widthMilli;
@@ -19,9 +19,9 @@ public class Display extends JPanel {
     private final int radius        = 2;
     private final Font font         = new Font("Consolas", Font.PLAIN, 30);
     
-    public ArrayList<Point> points, icpPoints;
-    
-    public ICP icp;
+    // what's on screen; replaced as a whole when the loader publishes a new one
+    public volatile ViewSnapshot view;
+    public final DatasetLoader loader = new DatasetLoader(DATA_FILES, this);
     public static final boolean SINGLE_STEP = false;
     
     public static final double FPS = 10;
@@ -64,15 +64,17 @@ public class Display extends JPanel {
         });
         
         // Creating Points
+        if (SINGLE_STEP) loader.convergence = Convergence.iterations(0);
         reset(0, false);
+        loader.prefetch();
         new javax.swing.Timer((int)(1000/FPS), evt -> {
             drawRev++;
-            if (drawRev >= numRevs) drawRev = 0;
+            if (view == null || drawRev >= view.numRevs) drawRev = 0;
             repaint();
         }).start();
     }
     
-    int selectedI = -1;
+    Point selected = null;
     Point mouseLoc = null;
     public void onMouse(int mx, int my, int mdx, int mdy, boolean drag) {
         if (drag) {
@@ -83,24 +85,16 @@ public class Display extends JPanel {
         
         Point m = mouseLoc = getDataLoc(mx, my);
         
-        double minDist = Double.MAX_VALUE;
-        int minI = -1;
-        for (int i = 0; i < points.size(); i++) {
-            Point p = points.get(i);
-            double dx = p.x-m.x, dy = p.y-m.y;
-            double dist = dx*dx + dy*dy;
-            if (dist < minDist) {
-                minDist = dist;
-                minI = i;
-            }
-        }
-        
-        if (selectedI != minI) {
-            selectedI = minI;
-            // debug("index: "+minI);
+        ViewSnapshot v = view;
+        if (v == null) return;
+        Point nearest = v.pointIndex.getNearest(m.x, m.y);
+        if (selected != nearest) {
+            selected = nearest;
+            // debug("hover: "+nearest);
         }
     }
     
+    public static final int HOVER_RADIUS = 10; // px, for the hover neighbour count
     public static final double ZOOM_RATE = 1.4;
     public void onKey(int code, boolean shift) {
         if (code == KeyEvent.VK_MINUS)
@@ -108,8 +102,8 @@ public class Display extends JPanel {
         if (code == KeyEvent.VK_EQUALS || code == KeyEvent.VK_PLUS)
             scaleFactor *= ZOOM_RATE;
         
-        if (code == KeyEvent.VK_SPACE)
-            icp.doICP(1, icpPoints);
+        if (code == KeyEvent.VK_SPACE && view != null)
+            loader.step(view, this::show);
         
         if (code == KeyEvent.VK_L)
             connectPoints = !connectPoints;
@@ -173,10 +167,32 @@ public class Display extends JPanel {
     public boolean debugICP = false;
     public boolean connectPoints = true;
     public int drawRev;
-    public int numRevs;
+    public final CloudRenderer renderer = new CloudRenderer();
+    public int dataVersion; // bump whenever points or ICP results change, so the renderer redraws
     public void paint(Graphics g) {
-        g.setColor(Color.BLACK);
-        g.fillRect(0, 0, getWidth(), getHeight());
+        // Draw stuff
+        scale = Math.min((double)getWidth()/widthMilli, (double)getHeight()/heightMilli);
+        centerX = getWidth()/2;
+        centerY = getHeight()/2;
+        
+        ViewSnapshot v = view;
+        if (v == null) {
+            g.setColor(Color.BLACK);
+            g.fillRect(0, 0, getWidth(), getHeight());
+            g.setFont(font);
+            g.setColor(Color.WHITE);
+            textRow = 1;
+            String status = loader.getStatus();
+            if (status != null) drawString(g, status);
+            return;
+        }
+        
+        int flags = (drawFrames? CloudRenderer.DRAW_FRAMES : 0) | (drawICP? CloudRenderer.DRAW_ICP : 0) |
+                    (debugICP? CloudRenderer.DRAW_DEBUG_ICP : 0) | (connectPoints? CloudRenderer.DRAW_CONNECT : 0);
+        renderer.radius = radius;
+        renderer.draw(g, getWidth(), getHeight(), scale, camX, camY, v.points,
+                      drawICP && debugICP? v.pairs : null, v.trans,
+                      dataVersion, flags, drawRev);
         
         // Draw text
         g.setFont(font);
@@ -185,59 +201,33 @@ public class Display extends JPanel {
         if (mouseLoc != null) {
             drawString(g, "Mouse: ("+(int)(mouseLoc.x)+", "+(int)(mouseLoc.y)+")");
         }
-        Point towerLoc = icp.transReference.segments[0].getMidpoint();
+        Point towerLoc = v.transReference.segments[0].getMidpoint();
         if (drawICP) {
             drawString(g, "ICP midpoint: ("+(int)(towerLoc.x)+", "+(int)(towerLoc.y)+")");
         }
         if (drawFrames) {
-            int padLen = Integer.toString(numRevs).length();
+            int padLen = Integer.toString(v.numRevs).length();
             String str = Integer.toString(drawRev);
             while (str.length() < padLen) str = " "+str;
-            drawString(g, "Revolution: "+str+"/"+numRevs);
+            drawString(g, "Revolution: "+str+"/"+v.numRevs);
         }
-        int dataFileNum = curDataFile + 1;
+        int dataFileNum = v.dataI + 1;
         if (dataFileNum == 10) dataFileNum = 0;
-        drawString(g, "Dataset: "+DATA_FILES[curDataFile]+" ("+dataFileNum+")");
-        
-        // Draw stuff
-        scale = Math.min((double)getWidth()/widthMilli, (double)getHeight()/heightMilli);
-        centerX = getWidth()/2;
-        centerY = getHeight()/2;
-        
-        if (drawICP && debugICP) {
-            g.setColor(Color.RED);
-            for (ICP.PointPair pair : icp.pairs) {
-                drawLine(g, pair.a, icp.icpTrans.apply(pair.b));
-            }
-        }
-        
-        int[] xPts = new int[points.size()];
-        int[] yPts = new int[points.size()];
-        Color[] colors = new Color[points.size()];
-        int numPts = 0;
-        for (Point p : points) {
-            if (drawFrames && p.revNum != drawRev) continue;
-            int[] pos = getDrawLoc(p);
-            xPts[numPts] = pos[0];
-            yPts[numPts] = pos[1];
-            colors[numPts] = drawICP? p.isICP? p.good && debugICP? Color.GREEN :
-                                                                   Color.WHITE :
-                                               Color.DARK_GRAY :
-                                      Color.WHITE;
-            numPts++;
+        drawString(g, "Dataset: "+v.name+" ("+dataFileNum+")");
+        if (v.cloud.sources.size() > 1) {
+            drawString(g, "Merged: "+v.cloud.sources.size()+" scans, "+v.cloud.getTotalInliers()+" inliers");
         }
-        if (connectPoints) {
-            g.setColor(Color.DARK_GRAY);
-            g.drawPolygon(xPts, yPts, numPts);
-        }
-        for (int i = 0; i < numPts; i++) {
-            int x = xPts[i], y = yPts[i];
-            g.setColor(colors[i]);
-            g.fillRect(x - radius, y - radius, radius * 2, radius * 2);
+        if (selected != null) {
+            int near = v.pointIndex.getWithin(selected.x, selected.y, HOVER_RADIUS/scale, new ArrayList<>()).size();
+            drawString(g, "Hover: "+v.cloud.sources.get(selected.source).name+" rev "+selected.revNum+", residual "+
+                          Math.round(selected.getDistance(v.transReference.getClosestPoint(selected)))+" mm, "+
+                          near+" points within "+HOVER_RADIUS+" px");
         }
+        String status = loader.getStatus();
+        if (status != null) drawString(g, status);
         
         if (drawICP)
-            icp.transReference.draw(g);
+            v.transReference.draw(g);
         
         if (drawTowerLoc) {
             int[] tPos = getDrawLoc(towerLoc);
@@ -245,9 +235,9 @@ public class Display extends JPanel {
             g.fillOval(tPos[0]-10, tPos[1]-10, 20, 20);
         }
         
-        if (selectedI >= 0 && drawICP && debugICP) {
-            Point p = points.get(selectedI);
-            Point rp = icp.transReference.getClosestPoint(p);
+        if (selected != null && drawICP && debugICP) {
+            Point p = selected;
+            Point rp = v.transReference.getClosestPoint(p);
             g.setColor(Color.RED);
             drawLine(g, p, rp);
         }
@@ -255,79 +245,15 @@ public class Display extends JPanel {
         int[] originPos = getDrawLoc(Point.fromRect(0, 0));
         g.setColor(Color.WHITE);
         g.drawOval(originPos[0]-4, originPos[1]-4, 8, 8);
-        g.drawLine(20, 20, 20+(int)(icp.dbgLength*scale), 20);
-    }
-    
-    public static final int REVS_TO_READ = Integer.MAX_VALUE;
-    public static final boolean CULL_CLOSE = false;
-    public ArrayList<Point> generateArray(String dataFile) {
-        debug("Loading data...");
-        ArrayList<Point> points = new ArrayList<Point>();
-        
-        try {
-            InputStream in = Display.class.getResourceAsStream("data/"+dataFile+".txt");
-            BufferedReader br = new BufferedReader(new InputStreamReader(in));
-            
-            String str;
-            double lastTheta = -1;
-            int rev = 0;
-            while ((str = br.readLine()) != null) {
-                String[] polar = str.split(" ");
-                double r = Double.parseDouble(polar[1]), theta = Math.toRadians(Double.parseDouble(polar[0]));
-                if (Double.isNaN(r) || Double.isNaN(theta)) throw new RuntimeException("NaN in data! \""+str+"\"");
-                if (theta < lastTheta) rev++;
-                lastTheta = theta;
-                if (r == 0) continue;
-                if (CULL_CLOSE && r < 1900) continue;
-                Point p = Point.fromPolar(theta, r);
-                if (rev >= REVS_TO_READ) break;
-                p.revNum = rev;
-                
-                points.add(p);
-            }
-            numRevs = rev;
-        } catch (Exception e) {
-            e.printStackTrace();
-            System.exit(1);
-        }
-        
-        debug("Read "+points.size()+" points ("+numRevs+" revolutions)");
-        sortPoints(points);
-        return points;
-    }
-    
-    public void sortPoints(List<Point> points) {
-        Collections.sort(points);
-    }
-    
-    public boolean keepPointForICP(Point p) {
-        return p.x > 6000 && p.x < 8000 &&
-               p.y > -7000 && p.y < 7000;
-    }
-    
-    public ArrayList<Point> getICPPoints(Iterable<Point> points) {
-        ArrayList<Point> list = new ArrayList<>();
-        for (Point p : points) {
-            if (p.isICP = keepPointForICP(p))
-                list.add(p);
-        }
-        return list;
-    }
-    
-    public Point getAveragePoint(Collection<Point> points) {
-        double sumX = 0, sumY = 0;
-        for (Point p : points) {
-            sumX += p.x;
-            sumY += p.y;
-        }
-        return Point.fromRect(sumX/points.size(), sumY/points.size());
+        g.drawLine(20, 20, 20+(int)(v.dbgLength*scale), 20);
     }
     
     public static double scaleFactor, camX, camY;
     public void calcBounds(boolean setCam) {
         double minX = Double.POSITIVE_INFINITY, maxX = Double.NEGATIVE_INFINITY;
         double minY = Double.POSITIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
-        for (Point p : points) {
+        if (view == null) return;
+        for (Point p : view.points) {
             if (p.x < minX) minX = p.x;
             if (p.x > maxX) maxX = p.x;
             if (p.y < minY) minY = p.y;
@@ -345,28 +271,27 @@ public class Display extends JPanel {
     public static final String[] DATA_FILES = new String[] {
         "left", "left-middle", "middle", "right-middle", "right", "right-far"
     };
-    public int curDataFile = -1;
+    /** Loads dataset dataI in the background, merging it into the current one if shift is down. */
     public void reset(int dataI, boolean shift) {
-        curDataFile = dataI;
-        ArrayList<Point> newPoints = generateArray(DATA_FILES[dataI]);
-        if (shift) {
-            points.addAll(newPoints);
-            sortPoints(points);
-            icpPoints.addAll(getICPPoints(newPoints));
-        } else {
-            points = newPoints;
-            icpPoints = getICPPoints(points);
-        }
-        
+        loader.request(dataI, shift? view : null, this::publish);
+    }
+    
+    // a new dataset (or merge) is ready: show it from the default view
+    private void publish(ViewSnapshot s) {
+        view = s;
         scaleFactor = 1.0;
         calcBounds(true);
-        
-        icp = new ICP(this, getAveragePoint(icpPoints));
-        icp.doICP(SINGLE_STEP? 0 : 5000, icpPoints);
-        
         drawRev = 0;
-        selectedI = -1;
+        selected = null;
         mouseLoc = null;
+        show(s);
+    }
+    
+    // same data, new registration
+    private void show(ViewSnapshot s) {
+        view = s;
+        dataVersion++;
+        repaint();
     }
     
     public static Display disp;
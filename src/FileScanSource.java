@@ -0,0 +1,43 @@
+import java.io.File;
+import java.io.IOException;
+
+/** Replays a recorded scan one revolution at a time, either at a fixed rate or as fast as it's read. */
+public class FileScanSource implements ScanSource {
+
+    private final RawScan scan;
+    private final long revNanos; // 0 for max speed
+    private int rev;
+    private long nextTime;
+
+    public FileScanSource(RawScan scan, double revsPerSecond) {
+        this.scan = scan;
+        this.revNanos = revsPerSecond > 0? (long)(1e9 / revsPerSecond) : 0;
+    }
+
+    public static FileScanSource open(File file, double revsPerSecond) throws IOException {
+        RawScan scan;
+        if (file.getName().endsWith(ScanFile.EXTENSION)) {
+            try (ScanFile sf = ScanFile.open(file)) {
+                scan = sf.readAll();
+            }
+        } else {
+            scan = ScanParser.parse(file, ICPLog.SILENT);
+        }
+        return new FileScanSource(scan, revsPerSecond);
+    }
+
+    public Revolution next() throws InterruptedException {
+        if (rev > scan.numRevs) return null;
+        if (revNanos > 0) {
+            long now = System.nanoTime();
+            if (nextTime == 0) nextTime = now;
+            nextTime += revNanos;
+            long wait = nextTime - now;
+            if (wait > 0) Thread.sleep(wait / 1000000, (int)(wait % 1000000));
+        }
+        PointCloud cloud = Revolution.toCloud(scan.theta, scan.dist, scan.getRevStart(rev), scan.getRevEnd(rev), rev);
+        return new Revolution(rev++, System.nanoTime(), cloud);
+    }
+
+    public void close() {}
+}
@@ -0,0 +1,96 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The scans merged into a view so far, each registered on its own. Adding a
+ * scan registers only the new points (seeded with the current estimate),
+ * merges them into the already sorted cloud in one linear pass, and fuses
+ * the per-scan results into one transform. Nothing loaded before is re-sorted or
+ * re-registered; the only work over the whole cloud is copying the points and
+ * one correspondence pass at the fused transform (see DatasetLoader.merge).
+ * Every point remembers the scan it came from in Point.source.
+ */
+public final class FusedCloud {
+
+    /** One merged scan and what registering it on its own came up with. */
+    public static final class Source {
+        public final int index, dataI;
+        public final String name;
+        public final int numPoints, numICPPoints, numRevs;
+        public final ICPResult result;
+
+        public Source(int index, int dataI, String name, int numPoints, int numICPPoints, int numRevs,
+                      ICPResult result) {
+            this.index = index;
+            this.dataI = dataI;
+            this.name = name;
+            this.numPoints = numPoints;
+            this.numICPPoints = numICPPoints;
+            this.numRevs = numRevs;
+            this.result = result;
+        }
+
+        public String toString() {
+            return name+": "+numPoints+" points, "+result;
+        }
+    }
+
+    public final List<Source> sources;
+    public final Transform trans; // fitted to all the sources' inliers at once
+
+    public FusedCloud(List<Source> sources) {
+        this.sources = Collections.unmodifiableList(new ArrayList<>(sources));
+        this.trans = fuse(this.sources);
+    }
+
+    public FusedCloud plus(Source source) {
+        ArrayList<Source> ss = new ArrayList<>(sources);
+        ss.add(source);
+        return new FusedCloud(ss);
+    }
+
+    public int getTotalInliers() {
+        int n = 0;
+        for (Source s : sources) n += s.result.inliers;
+        return n;
+    }
+
+    /**
+     * Fits one transform to the last inlier correspondences of every source
+     * together, by adding up their ICP sums (falling back to the first
+     * source's transform if there are no inliers at all).
+     */
+    public static Transform fuse(List<Source> sources) {
+        if (sources.isEmpty()) return new Transform();
+        double[] sums = new double[sources.get(0).result.sums.length];
+        for (Source s : sources) {
+            for (int k = 0; k < sums.length; k++) sums[k] += s.result.sums[k];
+        }
+        Transform t = ICP.fit(sums);
+        return t != null? t : sources.get(0).result.trans;
+    }
+
+    /**
+     * Merges two lists that are each sorted by theta into a new sorted list,
+     * in one pass. On ties a's points come first, so the result is the same
+     * as a stable sort of a followed by b.
+     */
+    public static ArrayList<Point> mergeSorted(List<Point> a, List<Point> b) {
+        ArrayList<Point> out = new ArrayList<>(a.size() + b.size());
+        int i = 0, j = 0;
+        while (i < a.size() && j < b.size()) {
+            Point p = a.get(i), q = b.get(j);
+            if (q.theta < p.theta) {
+                out.add(q);
+                j++;
+            } else {
+                out.add(p);
+                i++;
+            }
+        }
+        while (i < a.size()) out.add(a.get(i++));
+        while (j < b.size()) out.add(b.get(j++));
+        return out;
+    }
+}
@@ -1,12 +1,14 @@
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.stream.IntStream;
 
 public class ICP {
     
-    private final Display disp;
+    private final ICPLog log;
     
-    public ICP(Display d, Point guessPos) {
-        disp = d;
+    public ICP(ICPLog log, Point guessPos) {
+        this.log = log;
         icpTrans = new Transform(0, guessPos.x, guessPos.y);
     }
     
@@ -22,89 +24,440 @@ public class ICP {
     }
     
     public ReferenceModel reference = ReferenceModel.TOWER;
+    public RobustKernel kernel = RobustKernel.HARD;
+    
+    /**
+     * What ICP minimizes: the distances from the points to their closest
+     * model points (solved in closed form), or their distances to the
+     * model's lines, which slide freely along a wall (solved with a damped
+     * Gauss-Newton step per iteration).
+     */
+    public enum Metric { POINT_TO_POINT, POINT_TO_LINE }
+    public Metric metric = Metric.POINT_TO_POINT;
+    // relative Levenberg-Marquardt damping of the point-to-line step, and how
+    // close (by the point-to-point step) the pose must be before it's used
+    public static final double LINE_DAMPING = 1e-6;
+    public static final double LINE_MAX_TRANSLATION = 50, LINE_MAX_ROTATION = 0.05; // mm, radians
+    // weight of the point-to-point residuals mixed into the point-to-line step
+    public static final double LINE_POINT_WEIGHT = 0.1;
+    public DistanceField distanceField; // optional, must be built over reference
+    public OccupancyGrid map; // optional, matches against its occupied cells instead of reference
     public ReferenceModel transReference;
     public Transform icpTrans;
     
     public static final double OUTLIER_THRESH = 1.0; // multiplier of mean
-    public ArrayList<PointPair> pairs = new ArrayList<>();
     public double dbgLength;
     public double lastMean = Double.POSITIVE_INFINITY;
+    
+    // Correspondences of the last pass live in these buffers (closest reference
+    // point and its distance for each input point, inliers flagged GOOD); they
+    // are reused across iterations and calls so steady-state iterations
+    // allocate nothing. PointPairs are only built if someone asks for them.
+    private final PointCloud refFramePoints = new PointCloud();
+    private double[] closestX = new double[0], closestY = new double[0], closestDist = new double[0];
+    private double[] kernelScratch = new double[0];
+    private PointCloud lastCloud;
+    private ArrayList<Point> lastPoints; // what lastCloud was made from, if anything
+    private ArrayList<PointPair> pairs;
+    
+    // slots of the sums accumulated by a correspondence pass; the point sums
+    // are weighted by the kernel, and SUM_W is the total weight. H and G are
+    // the normal equations of the point-to-line step (only filled in for it).
+    // MultiICP accumulates the point sums into the same slots.
+    static final int SUM_DISTS = 0, SUM_N = 1,
+                     SUM_XA = 2, SUM_YA = 3, SUM_XB = 4, SUM_YB = 5,
+                     SXX = 6, SXY = 7, SYX = 8, SYY = 9,
+                     SUM_INLIER_DISTS = 10, SUM_W = 11,
+                     H00 = 12, H01 = 13, H02 = 14, H11 = 15, H12 = 16, H22 = 17,
+                     G0 = 18, G1 = 19, G2 = 20, NUM_SUMS = 21;
+    private final double[] sums = new double[NUM_SUMS];
+    private double[] chunkSums = new double[0];
+    
+    /** Split the correspondence pass across cores (worth it for big, e.g. merged, clouds). */
+    public boolean parallel = false;
+    // Chunks are fixed-size and their partial sums are added up in chunk order,
+    // so parallel results don't depend on the thread count or scheduling.
+    public static final int PARALLEL_CHUNK = 1024;
+    
+    private void ensureBuffers(int size) {
+        if (closestX.length >= size) return;
+        closestX = new double[size];
+        closestY = new double[size];
+        closestDist = new double[size];
+        kernelScratch = new double[size];
+        refFramePoints.ensureCapacity(size);
+    }
+    
     public Transform doICP(int iterations, Collection<Point> points) {
-        disp.debug("Doing ICP registration ("+iterations+" iters)...");
+        return doICP(Convergence.iterations(iterations), points).trans;
+    }
+    
+    public ICPResult doICP(Convergence conv, Collection<Point> points) {
+        ArrayList<Point> list = new ArrayList<>(points);
+        PointCloud cloud = PointCloud.of(list);
+        ICPResult result = doICP(conv, cloud);
+        lastPoints = list;
+        
+        // copy the flags back for the display
+        for (int i = 0; i < list.size(); i++) {
+            list.get(i).good = cloud.getFlag(i, PointCloud.GOOD);
+        }
+        return result;
+    }
+    
+    /** The inlier correspondences of the last pass, for visualization. */
+    public ArrayList<PointPair> getPairs() {
+        if (pairs != null) return pairs;
+        pairs = new ArrayList<>();
+        if (lastCloud == null) return pairs;
+        for (int i = 0; i < lastCloud.size; i++) {
+            if (!lastCloud.getFlag(i, PointCloud.GOOD)) continue;
+            Point a = lastPoints != null? lastPoints.get(i) : lastCloud.getPoint(i);
+            pairs.add(new PointPair(a, Point.fromRect(closestX[i], closestY[i]), closestDist[i]));
+        }
+        return pairs;
+    }
+    
+    public Transform doICP(int iterations, PointCloud points) {
+        return doICP(Convergence.iterations(iterations), points).trans;
+    }
+    
+    public ICPResult doICP(Convergence conv, PointCloud points) {
+        final int iterations = conv.maxIterations;
+        log.debug("Doing ICP registration ("+iterations+" iters)...");
         long startTime = System.nanoTime();
-        Transform trans = icpTrans;
-        for (int n = 0; n < iterations+1; n++) {
+        long[] iterationNanos = new long[Math.min(iterations, 100000)+1];
+        int numTimes = 0;
+        final double epsTransSq = conv.epsTranslation*conv.epsTranslation;
+        ICPResult.Stop stop = ICPResult.Stop.MAX_ITERATIONS;
+        int n = 0, N = 0;
+        double sumDists = 0, inlierDists = 0;
+        final int size = points.size;
+        ensureBuffers(size);
+        lastCloud = points;
+        lastPoints = null;
+        pairs = null;
+        refFramePoints.setSize(size);
+        
+        // the current transform, kept in locals so iterating allocates nothing
+        double curTheta = icpTrans.theta, curTx = icpTrans.tx, curTy = icpTrans.ty;
+        double curSin = icpTrans.sin, curCos = icpTrans.cos;
+        long iterStart = startTime;
+        for (n = 0; n < iterations+1; n++) {
+            log.progress(n, iterations);
+            
             /// get pairs of corresponding points
-            Transform transInv = trans.inverse();
-            pairs.clear();
-            
-            double sumDists = 0;
-            final double threshold = lastMean*OUTLIER_THRESH;
-            dbgLength = threshold;
-            
-            double SumXa = 0, SumXb = 0, SumYa = 0, SumYb = 0;
-            double Sxx = 0, Sxy = 0, Syx = 0, Syy = 0;
-            for (Point p : points) {
-                Point p2 = transInv.apply(p);
-                Point rp = reference.getClosestPoint(p2);
-                double dist = p2.getDistance(rp);
-                sumDists += dist;
-                
-                p.good = dist < threshold;
-                if (!p.good) continue;
-                pairs.add(new PointPair(p, rp, dist));
-                
-                // Compute the terms:
-                SumXa += p.x;
-                SumYa += p.y;
-                
-                SumXb += rp.x;
-                SumYb += rp.y;
-                
-                Sxx += p.x * rp.x;
-                Sxy += p.x * rp.y;
-                Syx += p.y * rp.x;
-                Syy += p.y * rp.y;
+            // (map the points into the reference frame with the inverse transform)
+            final double invCos = curCos, invSin = -curSin;
+            final double invTx = -curTx*curCos - curTy*curSin, invTy = curTx*curSin - curTy*curCos;
+            final boolean par = parallel && size >= 2*PARALLEL_CHUNK;
+            final int chunks = (size + PARALLEL_CHUNK-1) / PARALLEL_CHUNK;
+            if (par) {
+                IntStream.range(0, chunks).parallel().forEach(c ->
+                    match(points, c*PARALLEL_CHUNK, Math.min(size, (c+1)*PARALLEL_CHUNK), invCos, invSin, invTx, invTy));
+            } else {
+                match(points, 0, size, invCos, invSin, invTx, invTy);
+            }
+            
+            // (weigh them)
+            final double scale = kernel.scale(closestDist, size, lastMean, kernelScratch);
+            dbgLength = scale;
+            final double cos = curCos, sin = curSin, tx0 = curTx, ty0 = curTy;
+            if (par) {
+                if (chunkSums.length < chunks*NUM_SUMS) chunkSums = new double[chunks*NUM_SUMS];
+                final double[] cs = chunkSums;
+                IntStream.range(0, chunks).parallel().forEach(c ->
+                    accumulate(points, c*PARALLEL_CHUNK, Math.min(size, (c+1)*PARALLEL_CHUNK), scale,
+                               cos, sin, tx0, ty0, cs, c*NUM_SUMS));
+                Arrays.fill(sums, 0);
+                for (int c = 0; c < chunks; c++) {
+                    for (int k = 0; k < NUM_SUMS; k++) sums[k] += cs[c*NUM_SUMS + k];
+                }
+            } else {
+                accumulate(points, 0, size, scale, cos, sin, tx0, ty0, sums, 0);
             }
+            sumDists = sums[SUM_DISTS];
+            inlierDists = sums[SUM_INLIER_DISTS];
+            N = (int)sums[SUM_N];
+            final double W = sums[SUM_W];
+            final double SumXa = sums[SUM_XA], SumYa = sums[SUM_YA];
+            final double SumXb = sums[SUM_XB], SumYb = sums[SUM_YB];
+            final double Sxx = sums[SXX], Sxy = sums[SXY], Syx = sums[SYX], Syy = sums[SYY];
             
             if (n==iterations) break;
-            lastMean = sumDists / points.size();
+            final double prevMean = lastMean;
+            lastMean = sumDists / size;
             
             /// calculate the new transform
             // code based on http://mrpt.ual.es/reference/devel/se2__l2_8cpp_source.html#l00158
-            final int N = pairs.size();
-            if (N==0) return new Transform(); // TODO: handle this better, or avoid it
-            final double N_inv = 1.0 / N;
+            if (W==0) {
+                // keep the last estimate rather than jumping to the identity
+                log.debug("No inliers on iteration n="+n);
+                icpTrans = new Transform(curTheta, curTx, curTy, curSin, curCos);
+                transReference = icpTrans.apply(reference);
+                return new ICPResult(icpTrans, ICPResult.Stop.NO_INLIERS, n, lastMean, 0, 0,
+                                     iterationNanos, numTimes, System.nanoTime()-startTime, sums.clone());
+            }
+            // (weighted sums, so the total weight W stands in for the count;
+            // with the hard kernel every weight is 1 and W == N)
+            final double W_inv = 1.0 / W;
             
-            final double mean_x_a = SumXa * N_inv;
-            final double mean_y_a = SumYa * N_inv;
-            final double mean_x_b = SumXb * N_inv;
-            final double mean_y_b = SumYb * N_inv;
+            final double mean_x_a = SumXa * W_inv;
+            final double mean_y_a = SumYa * W_inv;
+            final double mean_x_b = SumXb * W_inv;
+            final double mean_y_b = SumYb * W_inv;
             
             // Auxiliary variables Ax,Ay:
-            final double Ax = N * (Sxx + Syy) - SumXa * SumXb - SumYa * SumYb;
-            final double Ay = SumXa * SumYb + N * (Syx - Sxy) - SumXb * SumYa;
+            final double Ax = W * (Sxx + Syy) - SumXa * SumXb - SumYa * SumYb;
+            final double Ay = SumXa * SumYb + W * (Syx - Sxy) - SumXb * SumYa;
             
-            final double theta = (Ax == 0 && Ay == 0)? 0.0 : Math.atan2(Ay, Ax);
+            double theta = (Ax == 0 && Ay == 0)? 0.0 : Math.atan2(Ay, Ax);
             
-            final double ccos = Math.cos(theta);
-            final double csin = Math.sin(theta);
+            double ccos = Math.cos(theta);
+            double csin = Math.sin(theta);
             
-            final double tx = mean_x_a - mean_x_b * ccos + mean_y_b * csin;
-            final double ty = mean_y_a - mean_x_b * csin - mean_y_b * ccos;
+            double tx = mean_x_a - mean_x_b * ccos + mean_y_b * csin;
+            double ty = mean_y_a - mean_x_b * csin - mean_y_b * ccos;
+            
+            // Point-to-line steps are linearized, so they only take over once
+            // the point-to-point step says the pose is close.
+            final double pDx = tx-curTx, pDy = ty-curTy;
+            if (metric == Metric.POINT_TO_LINE && Math.abs(angleDiff(theta, curTheta)) <= LINE_MAX_ROTATION &&
+                pDx*pDx + pDy*pDy <= LINE_MAX_TRANSLATION*LINE_MAX_TRANSLATION) {
+                // solve (H + damping*diag(H)) d = -G for the update d = (dTheta, dx, dy),
+                // which rotates the current transform about the sensor and then shifts it
+                final double l = 1 + LINE_DAMPING;
+                final double a00 = sums[H00]*l, a01 = sums[H01], a02 = sums[H02];
+                final double a11 = sums[H11]*l, a12 = sums[H12], a22 = sums[H22]*l;
+                final double g0 = -sums[G0], g1 = -sums[G1], g2 = -sums[G2];
+                final double c00 = a11*a22 - a12*a12, c01 = a02*a12 - a01*a22, c02 = a01*a12 - a02*a11;
+                final double det = a00*c00 + a01*c01 + a02*c02;
+                double dTheta = 0, dx = 0, dy = 0;
+                if (det != 0 && !Double.isNaN(det)) {
+                    final double c11 = a00*a22 - a02*a02, c12 = a01*a02 - a00*a12, c22 = a00*a11 - a01*a01;
+                    dTheta = (c00*g0 + c01*g1 + c02*g2) / det;
+                    dx     = (c01*g0 + c11*g1 + c12*g2) / det;
+                    dy     = (c02*g0 + c12*g1 + c22*g2) / det;
+                }
+                final double dc = Math.cos(dTheta), ds = Math.sin(dTheta);
+                ccos = dc*curCos - ds*curSin;
+                csin = ds*curCos + dc*curSin;
+                theta = Math.atan2(csin, ccos);
+                tx = dc*curTx - ds*curTy + dx;
+                ty = ds*curTx + dc*curTy + dy;
+            }
             
-            if (theta==trans.theta && tx==trans.tx && ty==trans.ty) {
-                disp.debug("Converged on iteration n="+n);
+            final double dTx = tx-curTx, dTy = ty-curTy;
+            final boolean moved = !(Math.abs(angleDiff(theta, curTheta)) <= conv.epsRotation &&
+                                    dTx*dTx + dTy*dTy <= epsTransSq);
+            curTheta = theta;
+            curTx = tx;
+            curTy = ty;
+            curSin = csin;
+            curCos = ccos;
+            
+            long now = System.nanoTime();
+            if (numTimes < iterationNanos.length) iterationNanos[numTimes++] = now - iterStart;
+            iterStart = now;
+            if (!moved) {
+                stop = ICPResult.Stop.CONVERGED;
+                break;
+            }
+            if (conv.epsResidual > 0 && Math.abs(prevMean - lastMean) <= conv.epsResidual*lastMean) {
+                stop = ICPResult.Stop.RESIDUAL;
+                break;
+            }
+            if (now - startTime >= conv.timeBudgetNanos) {
+                stop = ICPResult.Stop.TIME_BUDGET;
+                break;
+            }
+            if (Thread.currentThread().isInterrupted()) {
+                stop = ICPResult.Stop.CANCELLED;
                 break;
             }
-            trans = new Transform(theta, tx, ty, csin, ccos);
         }
+        if (stop != ICPResult.Stop.MAX_ITERATIONS) log.debug("Stopped on iteration n="+n+" ("+stop+")");
+        Transform trans = new Transform(curTheta, curTx, curTy, curSin, curCos);
         long endTime = System.nanoTime();
-        disp.debug("Done ("+Math.round((endTime-startTime)/1000000f)+" ms)\n");
-        // disp.debug(trans);
+        log.debug("Done ("+Math.round((endTime-startTime)/1000000f)+" ms)\n");
+        // log.debug(trans);
         icpTrans = trans;
         transReference = trans.apply(reference);
-        return trans;
+        int updates = stop == ICPResult.Stop.MAX_ITERATIONS? iterations : n+1;
+        return new ICPResult(trans, stop, updates, sumDists/size, N > 0? inlierDists/N : 0, N,
+                             iterationNanos, numTimes, endTime-startTime, sums.clone());
+    }
+    
+    /**
+     * The transform that best fits the (weighted) correspondences summed up in
+     * sums (as in ICPResult.sums), or null if there are none. The sums of
+     * separate runs can be added element by element to fit all their
+     * correspondences at once.
+     */
+    public static Transform fit(double[] sums) {
+        final double N = sums[SUM_W];
+        if (N == 0) return null;
+        final double SumXa = sums[SUM_XA], SumYa = sums[SUM_YA];
+        final double SumXb = sums[SUM_XB], SumYb = sums[SUM_YB];
+        final double Ax = N * (sums[SXX] + sums[SYY]) - SumXa * SumXb - SumYa * SumYb;
+        final double Ay = SumXa * SumYb + N * (sums[SYX] - sums[SXY]) - SumXb * SumYa;
+        final double theta = (Ax == 0 && Ay == 0)? 0.0 : Math.atan2(Ay, Ax);
+        final double ccos = Math.cos(theta), csin = Math.sin(theta);
+        final double tx = (SumXa - SumXb * ccos + SumYb * csin) / N;
+        final double ty = (SumYa - SumXb * csin - SumYb * ccos) / N;
+        return new Transform(theta, tx, ty, csin, ccos);
+    }
+    
+    /**
+     * Finds the closest reference point and its distance for points
+     * [from, to), given the inverse of the current transform.
+     */
+    private void match(PointCloud points, int from, int to,
+                       double invCos, double invSin, double invTx, double invTy) {
+        Transform.applyAll(invCos, invSin, invTx, invTy, points.x, points.y, refFramePoints.x, refFramePoints.y, from, to);
+        if (map != null)                map.closestPoints(refFramePoints, from, to, closestX, closestY, closestDist);
+        else if (distanceField != null) distanceField.closestPoints(refFramePoints, from, to, closestX, closestY, closestDist);
+        else                            reference.closestPoints(refFramePoints, from, to, closestX, closestY, closestDist);
+    }
+    
+    /**
+     * Weighs the matches of points [from, to) with the kernel, flags the
+     * inliers, and writes the pass's sums to out[o .. o+NUM_SUMS). (cos, sin,
+     * tx, ty) is the current transform, for the point-to-line terms.
+     */
+    private void accumulate(PointCloud points, int from, int to, double scale,
+                            double cos, double sin, double tx, double ty, double[] out, int o) {
+        final double[] xs = points.x, ys = points.y;
+        final double[] rxs = closestX, rys = closestY, dists = closestDist;
+        final double[] pxs = refFramePoints.x, pys = refFramePoints.y;
+        final RobustKernel kernel = this.kernel;
+        final boolean line = metric == Metric.POINT_TO_LINE;
+        
+        double h00 = 0, h01 = 0, h02 = 0, h11 = 0, h12 = 0, h22 = 0, g0 = 0, g1 = 0, g2 = 0;
+        double sumDists = 0, inlierDists = 0, W = 0;
+        int N = 0;
+        double SumXa = 0, SumXb = 0, SumYa = 0, SumYb = 0;
+        double Sxx = 0, Sxy = 0, Syx = 0, Syy = 0;
+        for (int i = from; i < to; i++) {
+            double dist = dists[i];
+            sumDists += dist;
+            
+            final double w = kernel.weight(dist, scale);
+            boolean good = w > 0;
+            points.setFlag(i, PointCloud.GOOD, good);
+            if (!good) continue;
+            N++;
+            W += w;
+            inlierDists += dist;
+            
+            // Compute the terms:
+            final double xa = xs[i], ya = ys[i];
+            final double xb = rxs[i], yb = rys[i];
+            final double wxa = w * xa, wya = w * ya;
+            SumXa += wxa;
+            SumYa += wya;
+            
+            SumXb += w * xb;
+            SumYb += w * yb;
+            
+            Sxx += wxa * xb;
+            Sxy += wxa * yb;
+            Syx += wya * xb;
+            Syy += wya * yb;
+            
+            if (line) {
+                // The model normal at the match, in the reference frame: the
+                // direction from the match to the point (perpendicular to the
+                // segment inside it, radial at its ends).
+                double nx, ny;
+                if (dist > 0) {
+                    nx = (pxs[i] - xb) / dist;
+                    ny = (pys[i] - yb) / dist;
+                } else if (map != null) {
+                    nx = ny = 0; // a cell has no direction; the point term still holds it
+                } else {
+                    Line l = reference.getClosestSegment(xb, yb).line;
+                    double m = Math.hypot(l.vx, l.vy);
+                    nx = l.vy / m;
+                    ny = -l.vx / m;
+                }
+                // rotated into the sensor frame, with the match's predicted position q;
+                // the residual n.(q - a) is then -dist, and J is its derivative
+                // by (dTheta, dx, dy)
+                final double nsx = cos*nx - sin*ny, nsy = sin*nx + cos*ny;
+                final double qx = cos*xb - sin*yb + tx, qy = sin*xb + cos*yb + ty;
+                final double j0 = nsy*qx - nsx*qy, j1 = nsx, j2 = nsy;
+                final double wr = -w * dist;
+                h00 += w*j0*j0; h01 += w*j0*j1; h02 += w*j0*j2;
+                h11 += w*j1*j1; h12 += w*j1*j2; h22 += w*j2*j2;
+                g0 += wr*j0; g1 += wr*j1; g2 += wr*j2;
+                // plus a little of the point-to-point residual q - a, which pins
+                // down the directions a lone wall doesn't (sliding along it)
+                final double wp = w*LINE_POINT_WEIGHT, ex = qx - xa, ey = qy - ya;
+                h00 += wp*(qx*qx + qy*qy); h01 -= wp*qy; h02 += wp*qx;
+                h11 += wp; h22 += wp;
+                g0 += wp*(qx*ey - qy*ex); g1 += wp*ex; g2 += wp*ey;
+            }
+        }
+        out[o+H00] = h00; out[o+H01] = h01; out[o+H02] = h02;
+        out[o+H11] = h11; out[o+H12] = h12; out[o+H22] = h22;
+        out[o+G0] = g0; out[o+G1] = g1; out[o+G2] = g2;
+        out[o+SUM_DISTS] = sumDists;
+        out[o+SUM_N] = N;
+        out[o+SUM_W] = W;
+        out[o+SUM_XA] = SumXa;
+        out[o+SUM_YA] = SumYa;
+        out[o+SUM_XB] = SumXb;
+        out[o+SUM_YB] = SumYb;
+        out[o+SXX] = Sxx;
+        out[o+SXY] = Sxy;
+        out[o+SYX] = Syx;
+        out[o+SYY] = Syy;
+        out[o+SUM_INLIER_DISTS] = inlierDists;
+    }
+    
+    
+    /** a - b, wrapped to (-pi, pi], so steps across +-pi compare by how far they really turn. */
+    static double angleDiff(double a, double b) {
+        double d = Math.IEEEremainder(a - b, 2*Math.PI);
+        return d == -Math.PI? Math.PI : d;
+    }
+    
+    public static boolean keepPointForICP(Point p) {
+        return keepPointForICP(p.x, p.y);
+    }
+    
+    public static boolean keepPointForICP(double x, double y) {
+        return x > 6000 && x < 8000 &&
+               y > -7000 && y < 7000;
+    }
+    
+    // appends the points of src that keepPointForICP() to dst
+    public static void getICPPoints(PointCloud src, PointCloud dst) {
+        for (int i = 0; i < src.size; i++) {
+            if (!keepPointForICP(src.x[i], src.y[i])) continue;
+            int j = dst.add(src.x[i], src.y[i], src.theta[i], src.dist[i], src.rev[i], src.id[i]);
+            dst.setFlag(j, PointCloud.ICP, true);
+            src.setFlag(i, PointCloud.ICP, true);
+        }
+    }
+    
+    public static ArrayList<Point> getICPPoints(Iterable<Point> points) {
+        ArrayList<Point> list = new ArrayList<>();
+        for (Point p : points) {
+            if (p.isICP = keepPointForICP(p))
+                list.add(p);
+        }
+        return list;
+    }
+    
+    public static Point getAveragePoint(Collection<Point> points) {
+        double sumX = 0, sumY = 0;
+        for (Point p : points) {
+            sumX += p.x;
+            sumY += p.y;
+        }
+        return Point.fromRect(sumX/points.size(), sumY/points.size());
     }
     
 }
\ No newline at end of file
@@ -0,0 +1,10 @@
+public interface ICPLog {
+
+    void debug(Object msg);
+
+    // called once per ICP iteration; most logs don't care
+    default void progress(int iteration, int iterations) {}
+
+    public static final ICPLog STDOUT = msg -> System.out.println(msg);
+    public static final ICPLog SILENT = msg -> {};
+}
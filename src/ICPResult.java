@@ -0,0 +1,43 @@
+import java.util.Arrays;
+
+/** What a run of ICP.doICP came up with, and how it got there. */
+public class ICPResult {
+
+    public enum Stop {
+        CONVERGED,      // the transform moved less than the epsilons
+        RESIDUAL,       // the mean residual stopped changing
+        TIME_BUDGET,
+        MAX_ITERATIONS,
+        NO_INLIERS,     // nothing under the outlier threshold; trans is the last estimate
+        CANCELLED,      // the thread was interrupted; trans is the last estimate
+        PRUNED          // MultiICP dropped the hypothesis for a worse fit than another one
+    }
+
+    public final Transform trans;
+    public final Stop stop;
+    public final int iterations;        // transform updates made
+    public final double meanError;      // mean distance of all points to the model, last pass
+    public final double inlierMeanError;
+    public final int inliers;
+    public final long[] iterationNanos; // time taken by each correspondence pass + update
+    public final long totalNanos;
+    public final double[] sums;         // the last pass's correspondence sums; see ICP.fit()
+
+    public ICPResult(Transform trans, Stop stop, int iterations, double meanError, double inlierMeanError,
+                     int inliers, long[] iterationNanos, int numTimes, long totalNanos, double[] sums) {
+        this.trans = trans;
+        this.stop = stop;
+        this.iterations = iterations;
+        this.meanError = meanError;
+        this.inlierMeanError = inlierMeanError;
+        this.inliers = inliers;
+        this.iterationNanos = Arrays.copyOf(iterationNanos, numTimes);
+        this.totalNanos = totalNanos;
+        this.sums = sums;
+    }
+
+    public String toString() {
+        return trans+" after "+iterations+" iterations ("+stop+", "+Math.round(totalNanos/1e4)/100.0+" ms), "+
+               inliers+" inliers, mean error "+Math.round(meanError*100)/100.0+" mm";
+    }
+}
@@ -62,7 +62,11 @@ public class Line {
     }
     
     public double getDistance(Point p) {
-        return Math.abs(vy*p.x - vx*p.y - r);
+        return getDistance(p.x, p.y);
+    }
+    
+    public double getDistance(double x, double y) {
+        return Math.abs(vy*x - vx*y - r);
     }
     
     public Segment getSegment(Collection<Point> points) {
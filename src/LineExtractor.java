@@ -0,0 +1,262 @@
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Turns a theta-sorted revolution into Segments.
+ *
+ * extract() is incremental split-and-merge over angular neighbours: it walks
+ * the points once, growing a line fit (kept as running moments, so adding a
+ * point is O(1)) until the next point is too far from the fit or from its
+ * neighbour, then merges neighbouring runs whose combined fit is still good
+ * (including across the end of the revolution) and drops the ones that are
+ * too short. Everything is linear in the number of points.
+ *
+ * ransac() finds lines among the points regardless of their order, at
+ * O(iterations * points) per line; it's meant for building ReferenceModels
+ * from recorded data, not for keeping up with the scanner.
+ */
+public class LineExtractor {
+
+    public double maxLineError = 40;  // mm from the fit for a point to join a run
+    public double maxGap = 300;       // mm between neighbouring points of one segment
+    public double maxMergeRms = 20;   // mm, RMS error of the fit of two runs for them to be merged
+    public int minPoints = 8;
+    public double minLength = 100;    // mm
+
+    public LineExtractor() {
+    }
+
+    /** Moments of a set of points, relative to an origin so they stay well-conditioned. */
+    private static final class Run {
+        int start, count; // points [start, start+count), wrapping around the end of the revolution
+        double n, sx, sy, sxx, sxy, syy;
+
+        void add(double x, double y) {
+            n++;
+            sx += x; sy += y;
+            sxx += x*x; sxy += x*y; syy += y*y;
+        }
+
+        void addAll(Run r) {
+            n += r.n;
+            sx += r.sx; sy += r.sy;
+            sxx += r.sxx; sxy += r.sxy; syy += r.syy;
+        }
+
+        double cxx() { return sxx/n - (sx/n)*(sx/n); }
+        double cxy() { return sxy/n - (sx/n)*(sy/n); }
+        double cyy() { return syy/n - (sy/n)*(sy/n); }
+
+        double angle() {
+            return 0.5*Math.atan2(2*cxy(), cxx() - cyy());
+        }
+
+        // RMS distance of the points from their best fit line (smallest eigenvalue of the covariance)
+        double rms() {
+            double a = cxx(), b = cxy(), c = cyy();
+            double half = (a - c)/2;
+            return Math.sqrt(Math.max(0, (a + c)/2 - Math.sqrt(half*half + b*b)));
+        }
+
+        double distance(double x, double y) {
+            double phi = angle();
+            return Math.abs(-(x - sx/n)*Math.sin(phi) + (y - sy/n)*Math.cos(phi));
+        }
+    }
+
+    public List<Segment> extract(List<Point> revolution) {
+        return extract(PointCloud.of(revolution), 0, revolution.size());
+    }
+
+    /** Segments of the theta-sorted points [from, to) of cloud. */
+    public List<Segment> extract(PointCloud cloud, int from, int to) {
+        final int size = to - from;
+        final double[] xs = cloud.x, ys = cloud.y;
+        List<Segment> segments = new ArrayList<>();
+        if (size < 2) return segments;
+        final double ox = xs[from], oy = ys[from];
+
+        // split: grow runs while the points stay on the line and close together
+        ArrayList<Run> runs = new ArrayList<>();
+        Run run = null;
+        for (int i = from; i < to; i++) {
+            double x = xs[i] - ox, y = ys[i] - oy;
+            boolean split = run == null ||
+                            Math.hypot(xs[i] - xs[i-1], ys[i] - ys[i-1]) > maxGap ||
+                            (run.n >= 2 && run.distance(x, y) > maxLineError);
+            if (split) {
+                run = new Run();
+                run.start = i - from;
+                runs.add(run);
+            }
+            run.add(x, y);
+            run.count++;
+        }
+
+        // merge neighbours, including the last run into the first one
+        ArrayList<Run> merged = new ArrayList<>(runs.size());
+        for (Run r : runs) {
+            Run last = merged.isEmpty()? null : merged.get(merged.size()-1);
+            if (last != null && canMerge(last, r, xs, ys, from, size)) {
+                last.addAll(r);
+                last.count += r.count;
+            } else {
+                merged.add(r);
+            }
+        }
+        if (merged.size() > 1) {
+            Run first = merged.get(0), last = merged.get(merged.size()-1);
+            if (canMerge(last, first, xs, ys, from, size)) {
+                last.addAll(first);
+                last.count += first.count;
+                merged.remove(0);
+            }
+        }
+
+        for (Run r : merged) {
+            if (r.count < minPoints) continue;
+            Segment s = toSegment(r, xs, ys, from, size, ox, oy);
+            if (s.tMax - s.tMin >= minLength) segments.add(s);
+        }
+        return segments;
+    }
+
+    private boolean canMerge(Run a, Run b, double[] xs, double[] ys, int from, int size) {
+        int aEnd = from + (a.start + a.count - 1) % size, bStart = from + b.start;
+        if (Math.hypot(xs[bStart] - xs[aEnd], ys[bStart] - ys[aEnd]) > maxGap) return false;
+        Run both = new Run();
+        both.addAll(a);
+        both.addAll(b);
+        return both.rms() <= maxMergeRms;
+    }
+
+    // Seen from the scanner, the points of a straight run project onto the
+    // line in order, so its ends are the projections of the first and last points.
+    private static Segment toSegment(Run r, double[] xs, double[] ys, int from, int size, double ox, double oy) {
+        double phi = r.angle();
+        double vx = Math.cos(phi), vy = Math.sin(phi);
+        Line line = new Line(vx, vy, ox + r.sx/r.n, oy + r.sy/r.n);
+        int first = from + r.start % size, last = from + (r.start + r.count - 1) % size;
+        double t0 = line.getT(xs[first], ys[first]), t1 = line.getT(xs[last], ys[last]);
+        return new Segment(line, Math.min(t0, t1), Math.max(t0, t1));
+    }
+
+    /**
+     * Repeatedly fits the line through two random points that has the most
+     * points within maxLineError, refits it to those points, and takes them
+     * out, until no line has minPoints. Lines are cut at gaps over maxGap.
+     */
+    public List<Segment> ransac(List<Point> points, int iterations, Random rand) {
+        List<Segment> segments = new ArrayList<>();
+        int n = points.size();
+        double[] xs = new double[n], ys = new double[n];
+        for (int i = 0; i < n; i++) {
+            xs[i] = points.get(i).x;
+            ys[i] = points.get(i).y;
+        }
+        int[] inliers = new int[n];
+        double[] ts = new double[n];
+        while (n >= minPoints) {
+            int bestCount = 0;
+            double bestNx = 0, bestNy = 0, bestC = 0;
+            for (int k = 0; k < iterations; k++) {
+                int a = rand.nextInt(n), b = rand.nextInt(n);
+                double dx = xs[b] - xs[a], dy = ys[b] - ys[a], len = Math.hypot(dx, dy);
+                if (len == 0) continue;
+                double nx = -dy/len, ny = dx/len, c = nx*xs[a] + ny*ys[a];
+                int count = 0;
+                for (int i = 0; i < n; i++) {
+                    if (Math.abs(nx*xs[i] + ny*ys[i] - c) <= maxLineError) count++;
+                }
+                if (count > bestCount) {
+                    bestCount = count;
+                    bestNx = nx; bestNy = ny; bestC = c;
+                }
+            }
+            if (bestCount < minPoints) break;
+
+            // refit to the inliers, and split them where they have gaps along the line
+            Run r = new Run();
+            int m = 0;
+            for (int i = 0; i < n; i++) {
+                if (Math.abs(bestNx*xs[i] + bestNy*ys[i] - bestC) <= maxLineError) {
+                    inliers[m++] = i;
+                    r.add(xs[i], ys[i]);
+                }
+            }
+            double phi = r.angle();
+            Line line = new Line(Math.cos(phi), Math.sin(phi), r.sx/r.n, r.sy/r.n);
+            for (int j = 0; j < m; j++) ts[j] = line.getT(xs[inliers[j]], ys[inliers[j]]);
+            double[] sorted = Arrays.copyOf(ts, m);
+            Arrays.sort(sorted);
+            int pieceStart = 0;
+            for (int j = 1; j <= m; j++) {
+                if (j == m || sorted[j] - sorted[j-1] > maxGap) {
+                    if (j - pieceStart >= minPoints && sorted[j-1] - sorted[pieceStart] >= minLength) {
+                        segments.add(new Segment(line, sorted[pieceStart], sorted[j-1]));
+                    }
+                    pieceStart = j;
+                }
+            }
+
+            // take the inliers out
+            int w = 0;
+            for (int i = 0, j = 0; i < n; i++) {
+                if (j < m && inliers[j] == i) {
+                    j++;
+                    continue;
+                }
+                xs[w] = xs[i];
+                ys[w] = ys[i];
+                w++;
+            }
+            n = w;
+        }
+        return segments;
+    }
+
+    public static ReferenceModel toModel(List<Segment> segments) {
+        return new ReferenceModel(segments.toArray(new Segment[0]));
+    }
+
+    /**
+     * Prints the segments of one revolution of a recorded scan.
+     * Usage: java LineExtractor [-ransac] scan.txt [revolution]
+     */
+    public static void main(String[] args) throws Exception {
+        System.setProperty("java.awt.headless", "true");
+        boolean ransac = args.length > 0 && args[0].equals("-ransac");
+        int a = ransac? 1 : 0;
+        if (args.length <= a) {
+            System.err.println("usage: java LineExtractor [-ransac] scan.txt [revolution]");
+            System.exit(2);
+        }
+        File file = new File(args[a]);
+        int rev = args.length > a+1? Integer.parseInt(args[a+1]) : 0;
+        RawScan scan = file.getName().endsWith(ScanFile.EXTENSION)? ScanFile.open(file).readAll()
+                                                                    : ScanParser.parse(file, ICPLog.SILENT);
+        int from = scan.getRevStart(rev), to = scan.getRevEnd(rev);
+        PointCloud cloud = Revolution.toCloud(scan.theta, scan.dist, from, to, rev);
+
+        LineExtractor extractor = new LineExtractor();
+        long start = System.nanoTime();
+        List<Segment> segments;
+        if (ransac) {
+            ArrayList<Point> points = new ArrayList<>(cloud.size);
+            for (int i = 0; i < cloud.size; i++) points.add(cloud.getPoint(i));
+            segments = extractor.ransac(points, 200, new Random(0));
+        } else {
+            segments = extractor.extract(cloud, 0, cloud.size);
+        }
+        long nanos = System.nanoTime() - start;
+        System.out.println(cloud.size+" points -> "+segments.size()+" segments in "+
+                           Math.round(nanos/1e3)/1e3+" ms");
+        for (Segment s : segments) {
+            System.out.printf("  (%.0f, %.0f) - (%.0f, %.0f), %.0f mm%n",
+                              s.pMin.x, s.pMin.y, s.pMax.x, s.pMax.y, s.tMax - s.tMin);
+        }
+    }
+}
@@ -0,0 +1,431 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Point-to-point ICP for several hypotheses against one scan at once. A
+ * hypothesis is a ReferenceModel and a pose for it, and belongs to a
+ * target: different targets are different objects (possibly with the same
+ * model), and the hypotheses of one target are candidate poses of it.
+ *
+ * Each iteration is one sweep over the points. Every point is matched
+ * against the models of all the live hypotheses (skipping ones whose
+ * bounding circle is already farther than the best match so far) and goes
+ * to the target with the closest match, which partitions the scan between
+ * the targets. Within a target all the candidates see the same points, so
+ * they compete on equal terms. Each hypothesis then weighs its points with
+ * the kernel and takes the closed-form step on its own sums, exactly like
+ * ICP. After pruneAfter iterations, candidates with too few inliers, a mean
+ * inlier error over pruneRatio times their target's best, or the same pose
+ * as a better candidate are dropped.
+ *
+ * Candidates that have converged keep their pose and drop out of the
+ * sweeps, except that a target whose candidates have all converged stays
+ * in the matching through its best one, so the partition stays right while
+ * other targets move on.
+ */
+public class MultiICP {
+
+    private final ICPLog log;
+
+    public static final class Hypothesis {
+        public final ReferenceModel model;
+        public final int target;
+        public Transform trans;
+        public ICPResult result; // set once it's done (or pruned)
+        public boolean pruned;
+        public double lastMean = Double.POSITIVE_INFINITY;
+        public int inliers;
+        public double inlierMeanError = Double.POSITIVE_INFINITY;
+        int iterations;
+        boolean done;
+        ICPResult.Stop stop;
+        double[] sums;
+        // the model's bounding circle, in its own frame
+        final double centerX, centerY, radius;
+
+        Hypothesis(ReferenceModel model, int target, Transform trans) {
+            this.model = model;
+            this.target = target;
+            this.trans = trans;
+            double x0 = Double.POSITIVE_INFINITY, y0 = Double.POSITIVE_INFINITY;
+            double x1 = Double.NEGATIVE_INFINITY, y1 = Double.NEGATIVE_INFINITY;
+            for (Segment s : model.segments) {
+                for (Point p : new Point[] {s.pMin, s.pMax}) {
+                    x0 = Math.min(x0, p.x); x1 = Math.max(x1, p.x);
+                    y0 = Math.min(y0, p.y); y1 = Math.max(y1, p.y);
+                }
+            }
+            centerX = (x0 + x1) / 2;
+            centerY = (y0 + y1) / 2;
+            radius = Math.hypot(x1 - x0, y1 - y0) / 2;
+        }
+
+        boolean isLive() {
+            return !pruned && stop != ICPResult.Stop.NO_INLIERS;
+        }
+
+        public String toString() {
+            return "target "+target+(pruned? " (pruned) " : " ")+trans+", "+inliers+
+                   " inliers, mean inlier error "+Math.round(inlierMeanError*100)/100.0+" mm";
+        }
+    }
+
+    public final List<Hypothesis> hypotheses = new ArrayList<>();
+    private int numTargets;
+    public RobustKernel kernel = RobustKernel.HARD;
+    public boolean parallel = false;
+
+    public int pruneAfter = 3;           // iterations before candidates compete
+    public double pruneRatio = 2;        // of the best mean inlier error among the target's candidates
+    public int minInliers = 5;
+    public double duplicateTranslation = 10, duplicateRotation = 0.01; // mm, radians
+
+    // results of the last sweep: the target each point went to (-1 for none),
+    // and each hypothesis's match for the points of its target
+    private int[] owner = new int[0];
+    private double[][] closestX = new double[0][], closestY = new double[0][], closestDist = new double[0][];
+    private double[][] ownDists = new double[0][];
+    private double[] scratch = new double[0];
+
+    public MultiICP(ICPLog log) {
+        this.log = log;
+    }
+
+    /** Adds a new target with model at guess. */
+    public Hypothesis add(ReferenceModel model, Transform guess) {
+        Hypothesis h = new Hypothesis(model, numTargets++, guess);
+        hypotheses.add(h);
+        return h;
+    }
+
+    /** Adds another candidate pose for target's object. */
+    public Hypothesis add(Hypothesis target, Transform guess) {
+        Hypothesis h = new Hypothesis(target.model, target.target, guess);
+        hypotheses.add(h);
+        return h;
+    }
+
+    private void ensureBuffers(int size, int numHyps) {
+        if (owner.length < size) {
+            owner = new int[size];
+            scratch = new double[size];
+        }
+        if (closestX.length < numHyps || (numHyps > 0 && closestX[0].length < size)) {
+            int n = Math.max(size, owner.length);
+            closestX = new double[numHyps][n];
+            closestY = new double[numHyps][n];
+            closestDist = new double[numHyps][n];
+            ownDists = new double[numHyps][n];
+        }
+    }
+
+    /**
+     * Runs every hypothesis to convergence (or until conv's limits) and
+     * returns the ones that weren't pruned and kept some inliers, best
+     * (lowest mean inlier error) first.
+     */
+    public List<Hypothesis> doICP(Convergence conv, PointCloud points) {
+        final int iterations = conv.maxIterations;
+        final int size = points.size, numHyps = hypotheses.size();
+        log.debug("Doing multi-hypothesis ICP ("+numHyps+" hypotheses of "+numTargets+" targets, "+
+                  iterations+" iters)...");
+        long startTime = System.nanoTime();
+        long[] iterationNanos = new long[Math.min(iterations, 100000)+1];
+        int numTimes = 0;
+        final double epsTransSq = conv.epsTranslation*conv.epsTranslation;
+        ensureBuffers(size, numHyps);
+        final Hypothesis[] hyps = hypotheses.toArray(new Hypothesis[0]);
+        final double[] sums = new double[numHyps*ICP.NUM_SUMS];
+        final int[] counts = new int[numHyps];
+        final double[] scales = new double[numHyps];
+        final double[] inv = new double[numHyps*7]; // inverse transforms, and bounding circles in the sensor frame
+        final int[][] targetHyps = new int[numTargets][numHyps];
+        final int[] targetCounts = new int[numTargets];
+        final boolean[] active = new boolean[numHyps];
+        final int[] moving = new int[numHyps]; // the active hypotheses, in order
+        final boolean par = parallel && size >= 2*ICP.PARALLEL_CHUNK;
+        final int chunks = (size + ICP.PARALLEL_CHUNK-1) / ICP.PARALLEL_CHUNK;
+        final double[] chunkSums = par? new double[chunks*numHyps*ICP.NUM_SUMS] : null;
+        for (Hypothesis h : hyps) {
+            h.done = !h.isLive();
+            h.iterations = 0;
+        }
+
+        long iterStart = startTime;
+        for (int n = 0; n < iterations+1; n++) {
+            log.progress(n, iterations);
+
+            /// match every point against every active hypothesis, and give it to the closest target
+            activate(hyps, active);
+            int numLive = 0;
+            Arrays.fill(targetCounts, 0);
+            for (int k = 0; k < numHyps; k++) {
+                if (!active[k]) continue;
+                moving[numLive++] = k;
+                targetHyps[hyps[k].target][targetCounts[hyps[k].target]++] = k;
+                Transform t = hyps[k].trans;
+                inv[7*k]   = t.cos;
+                inv[7*k+1] = -t.sin;
+                inv[7*k+2] = -t.tx*t.cos - t.ty*t.sin;
+                inv[7*k+3] = t.tx*t.sin - t.ty*t.cos;
+                inv[7*k+4] = t.cos*hyps[k].centerX - t.sin*hyps[k].centerY + t.tx;
+                inv[7*k+5] = t.sin*hyps[k].centerX + t.cos*hyps[k].centerY + t.ty;
+                inv[7*k+6] = hyps[k].radius;
+            }
+            final int liveCount = numLive;
+            if (par) {
+                IntStream.range(0, chunks).parallel().forEach(c ->
+                    match(points, c*ICP.PARALLEL_CHUNK, Math.min(size, (c+1)*ICP.PARALLEL_CHUNK), hyps, inv,
+                          moving, liveCount, targetHyps, targetCounts));
+            } else {
+                match(points, 0, size, hyps, inv, moving, liveCount, targetHyps, targetCounts);
+            }
+
+            /// weigh each hypothesis's points with its own scale, and sum them up per hypothesis
+            Arrays.fill(counts, 0);
+            for (int i = 0; i < size; i++) {
+                if (owner[i] < 0) continue;
+                final int[] ks = targetHyps[owner[i]];
+                for (int j = 0; j < targetCounts[owner[i]]; j++) ownDists[ks[j]][counts[ks[j]]++] = closestDist[ks[j]][i];
+            }
+            for (int k = 0; k < numHyps; k++) {
+                scales[k] = kernel.scale(ownDists[k], counts[k], hyps[k].lastMean, scratch);
+            }
+            if (par) {
+                IntStream.range(0, chunks).parallel().forEach(c ->
+                    accumulate(points, c*ICP.PARALLEL_CHUNK, Math.min(size, (c+1)*ICP.PARALLEL_CHUNK),
+                               targetHyps, targetCounts, scales, chunkSums, c*numHyps*ICP.NUM_SUMS));
+                Arrays.fill(sums, 0);
+                for (int c = 0; c < chunks; c++) {
+                    int o = c*numHyps*ICP.NUM_SUMS;
+                    for (int j = 0; j < sums.length; j++) sums[j] += chunkSums[o + j];
+                }
+            } else {
+                accumulate(points, 0, size, targetHyps, targetCounts, scales, sums, 0);
+            }
+
+            /// step every hypothesis that's still moving
+            final boolean last = n == iterations;
+            boolean allDone = true;
+            for (int k = 0; k < numHyps; k++) {
+                Hypothesis h = hyps[k];
+                if (!active[k]) continue;
+                int o = k*ICP.NUM_SUMS;
+                h.sums = Arrays.copyOfRange(sums, o, o + ICP.NUM_SUMS);
+                h.inliers = (int)sums[o + ICP.SUM_N];
+                h.inlierMeanError = h.inliers > 0? sums[o + ICP.SUM_INLIER_DISTS] / h.inliers : Double.POSITIVE_INFINITY;
+                if (h.done || last) continue;
+                final double prevMean = h.lastMean;
+                h.lastMean = counts[k] > 0? sums[o + ICP.SUM_DISTS] / counts[k] : Double.POSITIVE_INFINITY;
+                Transform t = ICP.fit(h.sums);
+                if (t == null) {
+                    h.stop = ICPResult.Stop.NO_INLIERS;
+                    h.done = true;
+                    continue;
+                }
+                h.iterations++;
+                final double dTx = t.tx - h.trans.tx, dTy = t.ty - h.trans.ty;
+                final boolean moved = !(Math.abs(t.theta - h.trans.theta) <= conv.epsRotation &&
+                                        dTx*dTx + dTy*dTy <= epsTransSq);
+                h.trans = t;
+                if (!moved) {
+                    h.stop = ICPResult.Stop.CONVERGED;
+                    h.done = true;
+                } else if (conv.epsResidual > 0 && Math.abs(prevMean - h.lastMean) <= conv.epsResidual*h.lastMean) {
+                    h.stop = ICPResult.Stop.RESIDUAL;
+                    h.done = true;
+                }
+                allDone &= h.done;
+            }
+            if (last) break;
+            if (n+1 >= pruneAfter) prune(hyps, counts, startTime, iterationNanos, numTimes);
+
+            long now = System.nanoTime();
+            if (numTimes < iterationNanos.length) iterationNanos[numTimes++] = now - iterStart;
+            iterStart = now;
+            if (allDone) break;
+            if (now - startTime >= conv.timeBudgetNanos) {
+                stopAll(hyps, ICPResult.Stop.TIME_BUDGET);
+                break;
+            }
+            if (Thread.currentThread().isInterrupted()) {
+                stopAll(hyps, ICPResult.Stop.CANCELLED);
+                break;
+            }
+        }
+        stopAll(hyps, ICPResult.Stop.MAX_ITERATIONS);
+
+        long totalNanos = System.nanoTime() - startTime;
+        List<Hypothesis> live = new ArrayList<>();
+        for (int k = 0; k < numHyps; k++) {
+            Hypothesis h = hyps[k];
+            if (h.result == null) h.result = result(h, counts[k], iterationNanos, numTimes, totalNanos);
+            if (h.isLive()) live.add(h);
+        }
+        Collections.sort(live, Comparator.comparingDouble(h -> h.inlierMeanError));
+        log.debug("Done ("+Math.round(totalNanos/1e6)+" ms, "+live.size()+" of "+numHyps+" hypotheses left)\n");
+        return live;
+    }
+
+    /**
+     * Which hypotheses the next sweep matches: the live ones still moving,
+     * and for a target whose candidates have all stopped, its best one, so
+     * its points still go to it rather than to other targets.
+     */
+    private void activate(Hypothesis[] hyps, boolean[] active) {
+        for (int g = 0; g < numTargets; g++) {
+            int best = -1;
+            boolean moving = false;
+            for (int k = 0; k < hyps.length; k++) {
+                Hypothesis h = hyps[k];
+                if (h.target != g) continue;
+                active[k] = h.isLive() && !h.done;
+                moving |= active[k];
+                if (h.isLive() && (best < 0 || h.inlierMeanError < hyps[best].inlierMeanError)) best = k;
+            }
+            if (!moving && best >= 0) active[best] = true;
+        }
+    }
+
+    private void stopAll(Hypothesis[] hyps, ICPResult.Stop stop) {
+        for (Hypothesis h : hyps) {
+            if (h.isLive() && !h.done) {
+                h.stop = stop;
+                h.done = true;
+            }
+        }
+    }
+
+    private ICPResult result(Hypothesis h, int count, long[] iterationNanos, int numTimes, long totalNanos) {
+        double[] sums = h.sums != null? h.sums : new double[ICP.NUM_SUMS];
+        return new ICPResult(h.trans, h.stop, h.iterations, count > 0? sums[ICP.SUM_DISTS] / count : 0,
+                             h.inliers > 0? h.inlierMeanError : 0, h.inliers,
+                             iterationNanos, numTimes, totalNanos, sums);
+    }
+
+    // drops the candidates that lose to a better one of the same target
+    private void prune(Hypothesis[] hyps, int[] counts, long startTime, long[] iterationNanos, int numTimes) {
+        boolean[] lose = new boolean[hyps.length];
+        for (int k = 0; k < hyps.length; k++) {
+            Hypothesis h = hyps[k];
+            if (!h.isLive()) continue;
+            lose[k] = h.inliers < minInliers;
+            for (int j = 0; j < hyps.length && !lose[k]; j++) {
+                Hypothesis o = hyps[j];
+                if (j == k || !o.isLive() || o.target != h.target || o.inliers < minInliers) continue;
+                boolean better = o.inlierMeanError < h.inlierMeanError ||
+                                 (o.inlierMeanError == h.inlierMeanError && j < k);
+                if (!better) continue;
+                double dx = o.trans.tx - h.trans.tx, dy = o.trans.ty - h.trans.ty;
+                lose[k] = h.inlierMeanError > pruneRatio*o.inlierMeanError ||
+                          (Math.abs(o.trans.theta - h.trans.theta) <= duplicateRotation &&
+                           dx*dx + dy*dy <= duplicateTranslation*duplicateTranslation);
+            }
+        }
+        for (int k = 0; k < hyps.length; k++) {
+            if (!lose[k]) continue;
+            Hypothesis h = hyps[k];
+            h.pruned = true;
+            h.stop = ICPResult.Stop.PRUNED;
+            h.done = true;
+            h.result = result(h, counts[k], iterationNanos, numTimes, System.nanoTime() - startTime);
+        }
+    }
+
+    /**
+     * Matches points [from, to): finds the target with the closest match
+     * among the live hypotheses (inv holds each one's inverse transform and
+     * bounding circle), and makes sure every candidate of that target has
+     * its match.
+     */
+    private void match(PointCloud points, int from, int to, Hypothesis[] hyps, double[] inv,
+                       int[] live, int numLive, int[][] targetHyps, int[] targetCounts) {
+        final double[] xs = points.x, ys = points.y;
+        for (int i = from; i < to; i++) {
+            final double x = xs[i], y = ys[i];
+            int best = -1;
+            double bestDist = Double.POSITIVE_INFINITY;
+            for (int j = 0; j < numLive; j++) {
+                final int k = live[j];
+                closestDist[k][i] = Double.NaN;
+                // nothing on the model is closer than its bounding circle
+                final double cx = x - inv[7*k+4], cy = y - inv[7*k+5];
+                if (bestDist < Double.POSITIVE_INFINITY && Math.sqrt(cx*cx + cy*cy) - inv[7*k+6] >= bestDist) continue;
+                final double d = matchOne(hyps[k], k, i, x, y, inv);
+                if (d < bestDist) {
+                    bestDist = d;
+                    best = k;
+                }
+            }
+            if (best < 0) {
+                owner[i] = -1;
+                continue;
+            }
+            final int target = hyps[best].target;
+            owner[i] = target;
+            final int[] ks = targetHyps[target];
+            for (int j = 0; j < targetCounts[target]; j++) {
+                if (Double.isNaN(closestDist[ks[j]][i])) matchOne(hyps[ks[j]], ks[j], i, x, y, inv);
+            }
+        }
+    }
+
+    private double matchOne(Hypothesis h, int k, int i, double x, double y, double[] inv) {
+        final double c = inv[7*k], s = inv[7*k+1];
+        final double px = x*c - y*s + inv[7*k+2], py = x*s + y*c + inv[7*k+3];
+        h.model.getClosestSegment(px, py).getClosestPoint(px, py, closestX[k], closestY[k], i);
+        final double dx = px - closestX[k][i], dy = py - closestY[k][i];
+        return closestDist[k][i] = Math.sqrt(dx*dx + dy*dy);
+    }
+
+    /**
+     * Adds the weighted terms of points [from, to) to the sums of their
+     * target's hypotheses, in out[o ..). A point is flagged GOOD if it's an
+     * inlier of any of them.
+     */
+    private void accumulate(PointCloud points, int from, int to, int[][] targetHyps, int[] targetCounts,
+                            double[] scales, double[] out, int o) {
+        Arrays.fill(out, o, o + scales.length*ICP.NUM_SUMS, 0);
+        final double[] xs = points.x, ys = points.y;
+        final RobustKernel kernel = this.kernel;
+        for (int i = from; i < to; i++) {
+            boolean good = false;
+            if (owner[i] >= 0) {
+                final double xa = xs[i], ya = ys[i];
+                final int[] ks = targetHyps[owner[i]];
+                for (int j = 0; j < targetCounts[owner[i]]; j++) {
+                    final int k = ks[j];
+                    final int b = o + k*ICP.NUM_SUMS;
+                    final double dist = closestDist[k][i];
+                    out[b + ICP.SUM_DISTS] += dist;
+                    final double w = kernel.weight(dist, scales[k]);
+                    if (w <= 0) continue;
+                    good = true;
+                    final double xb = closestX[k][i], yb = closestY[k][i];
+                    final double wxa = w*xa, wya = w*ya;
+                    out[b + ICP.SUM_N] += 1;
+                    out[b + ICP.SUM_W] += w;
+                    out[b + ICP.SUM_INLIER_DISTS] += dist;
+                    out[b + ICP.SUM_XA] += wxa;
+                    out[b + ICP.SUM_YA] += wya;
+                    out[b + ICP.SUM_XB] += w*xb;
+                    out[b + ICP.SUM_YB] += w*yb;
+                    out[b + ICP.SXX] += wxa*xb;
+                    out[b + ICP.SXY] += wxa*yb;
+                    out[b + ICP.SYX] += wya*xb;
+                    out[b + ICP.SYY] += wya*yb;
+                }
+            }
+            points.setFlag(i, PointCloud.GOOD, good);
+        }
+    }
+
+    /** Which target point i went to on the last sweep, or -1. */
+    public int getOwner(int i) {
+        return owner[i];
+    }
+}
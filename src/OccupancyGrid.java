@@ -0,0 +1,355 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Occupancy grid map built from registered revolutions, and the closest
+ * occupied cell of every cell for matching scans against it.
+ *
+ * Each cell holds the log-odds that it's occupied. Integrating a scan
+ * traces a ray (Bresenham) from the sensor to every point: the cells it
+ * passes through become more likely free and the cell it ends in more
+ * likely occupied, clamped so a few contradicting scans can still flip a
+ * cell. Coordinates are in the map (reference model) frame, and poses are
+ * the same as ICP's: the transform takes the map into the sensor frame.
+ *
+ * For localization, an exact Euclidean distance transform of the occupied
+ * cells (Felzenszwalb and Huttenlocher's, which also keeps the nearest
+ * cell) gives every cell its closest occupied cell. closestPoints() has the
+ * same contract as ReferenceModel's, so ICP can match against the map
+ * instead of the segment list, and a query costs the same however much is
+ * in the map. Closest points are cell centers, so they're within half a
+ * cell of the true occupied surface.
+ *
+ * Layout of the file (.lgrid), little-endian:
+ *
+ *   int    magic ("LGRD"), version, width, height
+ *   double minX, minY, res (mm)
+ *   float  logOdds[width*height], row by row from minY
+ *
+ * Usage: java OccupancyGrid [-res mm] [-o map.lgrid] scan.txt...
+ *   registers each scan against the tower and builds a map from all of them
+ */
+public class OccupancyGrid {
+
+    public static final int MAGIC = 'L' | 'G'<<8 | 'R'<<16 | 'D'<<24;
+    public static final int VERSION = 1;
+    public static final String EXTENSION = ".lgrid";
+
+    // log-odds updates for a hit and a miss, and the clamp
+    public static final float L_OCCUPIED = 0.85f, L_FREE = -0.4f;
+    public static final float L_MIN = -2.0f, L_MAX = 3.5f;
+    public static final double MAX_RANGE = 20000; // mm, the default maxRange
+
+    public final double minX, minY, res;
+    public final int width, height;
+    public final float[] logOdds;
+    public double maxRange = MAX_RANGE; // farther points aren't integrated
+
+    private int[] nearest; // closest occupied cell of each cell, or -1 if there are none; null when stale
+    private int numOccupied;
+
+    public OccupancyGrid(double minX, double minY, double maxX, double maxY, double res) {
+        this(minX, minY, res, Math.max(1, (int)Math.ceil((maxX - minX) / res)),
+             Math.max(1, (int)Math.ceil((maxY - minY) / res)), null);
+    }
+
+    private OccupancyGrid(double minX, double minY, double res, int width, int height, float[] logOdds) {
+        this.minX = minX;
+        this.minY = minY;
+        this.res = res;
+        this.width = width;
+        this.height = height;
+        this.logOdds = logOdds != null? logOdds : new float[width*height];
+    }
+
+    public int getCellX(double x) {
+        return (int)Math.floor((x - minX) / res);
+    }
+
+    public int getCellY(double y) {
+        return (int)Math.floor((y - minY) / res);
+    }
+
+    public boolean isOccupied(int cx, int cy) {
+        return cx >= 0 && cy >= 0 && cx < width && cy < height && logOdds[cy*width + cx] > 0;
+    }
+
+    /** The probability that the cell at (x, y) is occupied (0.5 if unknown or outside the grid). */
+    public double getProbability(double x, double y) {
+        int cx = getCellX(x), cy = getCellY(y);
+        if (cx < 0 || cy < 0 || cx >= width || cy >= height) return 0.5;
+        return 1 - 1 / (1 + Math.exp(logOdds[cy*width + cx]));
+    }
+
+    /**
+     * Adds the points [from, to) of a revolution seen from pose trans (which
+     * takes the map into the sensor frame, like ICP's transform).
+     */
+    public void integrate(PointCloud cloud, int from, int to, Transform trans) {
+        Transform inv = trans.inverse();
+        final double cos = inv.cos, sin = inv.sin;
+        int ox = getCellX(inv.tx), oy = getCellY(inv.ty);
+        for (int i = from; i < to; i++) {
+            double x = cloud.x[i], y = cloud.y[i];
+            if (x*x + y*y > maxRange*maxRange) continue;
+            double mx = x*cos - y*sin + inv.tx, my = x*sin + y*cos + inv.ty;
+            trace(ox, oy, getCellX(mx), getCellY(my));
+        }
+        synchronized (this) {
+            nearest = null;
+        }
+    }
+
+    // Bresenham from (x0, y0) to (x1, y1): every cell but the last is a miss, the last a hit
+    private void trace(int x0, int y0, int x1, int y1) {
+        int dx = Math.abs(x1 - x0), dy = -Math.abs(y1 - y0);
+        int sx = x0 < x1? 1 : -1, sy = y0 < y1? 1 : -1;
+        int err = dx + dy;
+        int x = x0, y = y0;
+        while (x != x1 || y != y1) {
+            update(x, y, L_FREE);
+            int e2 = 2*err;
+            if (e2 >= dy) {
+                err += dy;
+                x += sx;
+            }
+            if (e2 <= dx) {
+                err += dx;
+                y += sy;
+            }
+        }
+        update(x1, y1, L_OCCUPIED);
+    }
+
+    private void update(int cx, int cy, float delta) {
+        if (cx < 0 || cy < 0 || cx >= width || cy >= height) return;
+        int i = cy*width + cx;
+        logOdds[i] = Math.max(L_MIN, Math.min(L_MAX, logOdds[i] + delta));
+    }
+
+    public synchronized int getNumOccupied() {
+        getNearest();
+        return numOccupied;
+    }
+
+    // (re)builds the distance transform if the map changed since the last one
+    private synchronized int[] getNearest() {
+        if (nearest != null) return nearest;
+        final int w = width, h = height;
+        final long inf = Long.MAX_VALUE / 4;
+        // along each row: squared distance to the closest occupied cell in the row, and its x
+        long[] rowDist = new long[w*h];
+        int[] rowX = new int[w*h];
+        numOccupied = 0;
+        for (int y = 0; y < h; y++) {
+            int last = -1;
+            for (int x = 0; x < w; x++) {
+                int i = y*w + x;
+                if (logOdds[i] > 0) {
+                    last = x;
+                    numOccupied++;
+                }
+                rowX[i] = last;
+            }
+            last = -1;
+            for (int x = w-1; x >= 0; x--) {
+                int i = y*w + x;
+                if (logOdds[i] > 0) last = x;
+                if (last >= 0 && (rowX[i] < 0 || last - x < x - rowX[i])) rowX[i] = last;
+                rowDist[i] = rowX[i] < 0? inf : (long)(x - rowX[i])*(x - rowX[i]);
+            }
+        }
+
+        // down each column: the lower envelope of the parabolas rowDist[q] + (y - q)^2
+        int[] out = new int[w*h];
+        int[] v = new int[h];
+        double[] z = new double[h+1];
+        for (int x = 0; x < w; x++) {
+            int k = -1;
+            for (int q = 0; q < h; q++) {
+                long fq = rowDist[q*w + x];
+                if (fq >= inf) continue;
+                double s = Double.NEGATIVE_INFINITY;
+                while (k >= 0) {
+                    int p = v[k];
+                    long fp = rowDist[p*w + x];
+                    s = ((fq + (long)q*q) - (fp + (long)p*p)) / (2.0*(q - p));
+                    if (s > z[k]) break;
+                    k--;
+                }
+                k++;
+                v[k] = q;
+                z[k] = k == 0? Double.NEGATIVE_INFINITY : s;
+                z[k+1] = Double.POSITIVE_INFINITY;
+            }
+            for (int y = 0, j = 0; y < h; y++) {
+                if (k < 0) {
+                    out[y*w + x] = -1;
+                    continue;
+                }
+                while (z[j+1] < y) j++;
+                int q = v[j];
+                out[y*w + x] = q*w + rowX[q*w + x];
+            }
+        }
+        nearest = out;
+        return out;
+    }
+
+    /**
+     * Same contract as ReferenceModel.closestPoints(), with the occupied
+     * cells as the model: writes the center of the closest occupied cell
+     * to (outX[i], outY[i]) and its distance to outDist[i]. Queries outside
+     * the grid use the closest cell to the edge cell they're nearest to. With
+     * no occupied cells at all, every distance is infinite.
+     */
+    public void closestPoints(PointCloud src, int from, int to, double[] outX, double[] outY, double[] outDist) {
+        final int[] near = getNearest();
+        final double[] xs = src.x, ys = src.y;
+        for (int i = from; i < to; i++) {
+            double x = xs[i], y = ys[i];
+            int cx = Math.max(0, Math.min(width-1, getCellX(x)));
+            int cy = Math.max(0, Math.min(height-1, getCellY(y)));
+            int n = near[cy*width + cx];
+            if (n < 0) {
+                outX[i] = x;
+                outY[i] = y;
+                outDist[i] = Double.POSITIVE_INFINITY;
+                continue;
+            }
+            double px = minX + (n % width + 0.5)*res, py = minY + (n / width + 0.5)*res;
+            outX[i] = px;
+            outY[i] = py;
+            double dx = x-px, dy = y-py;
+            outDist[i] = Math.sqrt(dx*dx + dy*dy);
+        }
+    }
+
+    public void closestPoints(PointCloud src, double[] outX, double[] outY, double[] outDist) {
+        closestPoints(src, 0, src.size, outX, outY, outDist);
+    }
+
+    /** Distance from (x, y) to the closest occupied cell's center. */
+    public double getDistance(double x, double y) {
+        PointCloud p = new PointCloud(1);
+        p.add(x, y, 0, 0, 0, 0);
+        double[] ox = new double[1], oy = new double[1], od = new double[1];
+        closestPoints(p, ox, oy, od);
+        return od[0];
+    }
+
+    public long getMemoryBytes() {
+        return 4L*logOdds.length + (nearest != null? 4L*nearest.length : 0);
+    }
+
+
+    public void write(File file) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(1<<16).order(ByteOrder.LITTLE_ENDIAN);
+        try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                                               StandardOpenOption.WRITE,
+                                               StandardOpenOption.TRUNCATE_EXISTING)) {
+            buf.putInt(MAGIC).putInt(VERSION).putInt(width).putInt(height);
+            buf.putDouble(minX).putDouble(minY).putDouble(res);
+            for (float l : logOdds) {
+                if (buf.remaining() < 4) flush(ch, buf);
+                buf.putFloat(l);
+            }
+            flush(ch, buf);
+        }
+    }
+
+    private static void flush(FileChannel ch, ByteBuffer buf) throws IOException {
+        buf.flip();
+        while (buf.hasRemaining()) ch.write(buf);
+        buf.clear();
+    }
+
+    public static OccupancyGrid read(File file) throws IOException {
+        try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (ch.size() < 40) throw new IOException("not a grid file");
+            MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+            buf.order(ByteOrder.LITTLE_ENDIAN);
+            if (buf.getInt(0) != MAGIC) throw new IOException("not a grid file");
+            if (buf.getInt(4) != VERSION) throw new IOException("unsupported grid file version "+buf.getInt(4));
+            int width = buf.getInt(8), height = buf.getInt(12);
+            if (width <= 0 || height <= 0 || 40 + 4L*width*height > ch.size())
+                throw new IOException("truncated grid file");
+            float[] logOdds = new float[width*height];
+            buf.position(40);
+            buf.asFloatBuffer().get(logOdds);
+            return new OccupancyGrid(buf.getDouble(16), buf.getDouble(24), buf.getDouble(32),
+                                     width, height, logOdds);
+        }
+    }
+
+
+    static void usage() {
+        System.err.println("usage: java OccupancyGrid [-res mm] [-o map.lgrid] scan.txt...");
+        System.exit(2);
+    }
+
+    public static void main(String[] args) throws IOException {
+        System.setProperty("java.awt.headless", "true");
+        double res = 20;
+        String outFile = "map"+EXTENSION;
+        List<File> files = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-res") && i+1 < args.length) res = Double.parseDouble(args[++i]);
+            else if (args[i].equals("-o") && i+1 < args.length) outFile = args[++i];
+            else if (args[i].startsWith("-")) usage();
+            else files.add(new File(args[i]));
+        }
+        if (files.isEmpty()) usage();
+
+        // register every scan against the tower, then size the map to fit them all
+        CorrelativeMatcher matcher = new CorrelativeMatcher(ReferenceModel.TOWER);
+        List<PointCloud> clouds = new ArrayList<>();
+        List<Transform> poses = new ArrayList<>();
+        double x0 = 0, y0 = 0, x1 = 0, y1 = 0;
+        for (File f : files) {
+            ArrayList<Point> points = new ScanLoader(ICPLog.SILENT).load(f);
+            ArrayList<Point> icpPoints = ICP.getICPPoints(points);
+            if (icpPoints.isEmpty()) {
+                System.err.println(f+": no points in the ICP region, skipped");
+                continue;
+            }
+            ICP icp = new ICP(ICPLog.SILENT, ICP.getAveragePoint(icpPoints));
+            Transform seed = matcher.match(icpPoints);
+            if (seed != null) icp.icpTrans = seed;
+            ICPResult result = icp.doICP(Convergence.defaults(), icpPoints);
+            System.err.println(f+": "+result);
+            PointCloud cloud = PointCloud.of(points);
+            Transform inv = result.trans.inverse();
+            PointCloud mapped = new PointCloud(cloud.size);
+            inv.applyAll(cloud, mapped);
+            x0 = Math.min(x0, inv.tx); x1 = Math.max(x1, inv.tx);
+            y0 = Math.min(y0, inv.ty); y1 = Math.max(y1, inv.ty);
+            for (int i = 0; i < mapped.size; i++) {
+                if (Math.hypot(cloud.x[i], cloud.y[i]) > MAX_RANGE) continue;
+                x0 = Math.min(x0, mapped.x[i]); x1 = Math.max(x1, mapped.x[i]);
+                y0 = Math.min(y0, mapped.y[i]); y1 = Math.max(y1, mapped.y[i]);
+            }
+            clouds.add(cloud);
+            poses.add(result.trans);
+        }
+
+        long startTime = System.nanoTime();
+        double margin = 10*res;
+        OccupancyGrid grid = new OccupancyGrid(x0-margin, y0-margin, x1+margin, y1+margin, res);
+        for (int k = 0; k < clouds.size(); k++) {
+            grid.integrate(clouds.get(k), 0, clouds.get(k).size, poses.get(k));
+        }
+        int occupied = grid.getNumOccupied();
+        long endTime = System.nanoTime();
+        grid.write(new File(outFile));
+        System.out.printf("%s: %dx%d cells @ %.0f mm, %d occupied, built in %.1f ms, %d kB%n",
+                          outFile, grid.width, grid.height, res, occupied, (endTime-startTime)/1e6,
+                          new File(outFile).length()/1024);
+    }
+}
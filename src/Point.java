@@ -2,6 +2,7 @@ public class Point implements Comparable<Point> {
     public final double x, y;
     public final double theta, dist;
     public int revNum;
+    public int source; // which merged scan it came from (see FusedCloud)
     
     public boolean good = true;
     public boolean isICP = false;
@@ -21,6 +22,16 @@ public class Point implements Comparable<Point> {
         return new Point(x, y, 0, 0);//, Math.atan2(y, x), Math.hypot(x, y));
     }
     
+    /** A copy with the same coordinates and flags, for state that mustn't be shared. */
+    public Point copy() {
+        Point p = new Point(x, y, theta, dist);
+        p.revNum = revNum;
+        p.source = source;
+        p.good = good;
+        p.isICP = isICP;
+        return p;
+    }
+    
     public double getDistanceSq(Point p) {
         double dx = x-p.x, dy = y-p.y;
         return dx*dx + dy*dy;
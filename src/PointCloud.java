@@ -0,0 +1,99 @@
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Structure-of-arrays point storage for the registration hot path: one
+ * primitive column per field of Point, plus a byte of bit flags per point.
+ * Columns may be longer than size; only [0, size) is meaningful.
+ */
+public class PointCloud {
+
+    public static final byte GOOD = 1; // Point.good
+    public static final byte ICP  = 2; // Point.isICP
+
+    public double[] x, y;
+    public float[] theta, dist;
+    public int[] rev;
+    public int[] id; // caller-defined, e.g. the index into the list the point came from
+    public byte[] flags;
+    public int size;
+
+    public PointCloud() {
+        this(16);
+    }
+
+    public PointCloud(int capacity) {
+        x = new double[capacity];
+        y = new double[capacity];
+        theta = new float[capacity];
+        dist = new float[capacity];
+        rev = new int[capacity];
+        id = new int[capacity];
+        flags = new byte[capacity];
+    }
+
+    public static PointCloud of(Collection<Point> points) {
+        PointCloud cloud = new PointCloud(points.size());
+        for (Point p : points) cloud.add(p);
+        return cloud;
+    }
+
+    public void ensureCapacity(int capacity) {
+        if (capacity <= x.length) return;
+        capacity = Math.max(capacity, x.length*2);
+        x = Arrays.copyOf(x, capacity);
+        y = Arrays.copyOf(y, capacity);
+        theta = Arrays.copyOf(theta, capacity);
+        dist = Arrays.copyOf(dist, capacity);
+        rev = Arrays.copyOf(rev, capacity);
+        id = Arrays.copyOf(id, capacity);
+        flags = Arrays.copyOf(flags, capacity);
+    }
+
+    // grows (without clearing) or shrinks to n points
+    public void setSize(int n) {
+        ensureCapacity(n);
+        size = n;
+    }
+
+    public int add(double px, double py, double pTheta, double pDist, int pRev, int pId) {
+        ensureCapacity(size+1);
+        int i = size++;
+        x[i] = px;
+        y[i] = py;
+        theta[i] = (float)pTheta;
+        dist[i] = (float)pDist;
+        rev[i] = pRev;
+        id[i] = pId;
+        flags[i] = GOOD;
+        return i;
+    }
+
+    public int add(Point p) {
+        int i = add(p.x, p.y, p.theta, p.dist, p.revNum, size);
+        setFlag(i, GOOD, p.good);
+        setFlag(i, ICP, p.isICP);
+        return i;
+    }
+
+    public boolean getFlag(int i, byte flag) {
+        return (flags[i] & flag) != 0;
+    }
+
+    public void setFlag(int i, byte flag, boolean value) {
+        if (value) flags[i] |= flag;
+        else       flags[i] &= ~flag;
+    }
+
+    public Point getPoint(int i) {
+        return Point.fromRect(x[i], y[i]);
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    public String toString() {
+        return "PointCloud("+size+" points)";
+    }
+}
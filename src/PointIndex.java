@@ -0,0 +1,181 @@
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Nearest-neighbour and radius queries over a growing set of Points.
+ *
+ * The points are kept in a few static, balanced k-d trees whose sizes
+ * roughly double from one to the next. Adding a batch builds a tree for it
+ * and merges it with the trees that aren't bigger, so appending scan after
+ * scan only rebuilds O(log n) times per point, and a query looks at
+ * O(log n) trees. Points mustn't move after they're added.
+ */
+public class PointIndex {
+
+    private final ArrayList<Tree> trees = new ArrayList<>();
+    private int size;
+
+    public PointIndex() {
+    }
+
+    public PointIndex(Collection<Point> points) {
+        addAll(points);
+    }
+
+    /**
+     * A new index with points added, leaving this one as it is. The trees
+     * are never modified once built, so the two share all the ones the
+     * added batch didn't have to be merged with.
+     */
+    public PointIndex plus(Collection<Point> points) {
+        PointIndex index = new PointIndex();
+        index.trees.addAll(trees);
+        index.size = size;
+        index.addAll(points);
+        return index;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        trees.clear();
+        size = 0;
+    }
+
+    public void addAll(Collection<Point> points) {
+        if (points.isEmpty()) return;
+        ArrayList<Point> batch = new ArrayList<>(points);
+        while (!trees.isEmpty() && trees.get(trees.size()-1).size() <= batch.size()) {
+            Tree t = trees.remove(trees.size()-1);
+            for (Point p : t.points) batch.add(p);
+        }
+        trees.add(new Tree(batch));
+        size += points.size();
+    }
+
+    /** Returns the point closest to (x, y), or null if there are none. */
+    public Point getNearest(double x, double y) {
+        Search s = new Search(x, y, Double.POSITIVE_INFINITY);
+        for (Tree t : trees) t.nearest(0, t.size(), 0, s);
+        return s.bestP;
+    }
+
+    /** Adds every point within radius of (x, y) to out, and returns out. */
+    public List<Point> getWithin(double x, double y, double radius, List<Point> out) {
+        for (Tree t : trees) t.within(0, t.size(), 0, x, y, radius*radius, out);
+        return out;
+    }
+
+    private static class Search {
+        final double x, y;
+        double best;
+        Point bestP;
+
+        Search(double x, double y, double best) {
+            this.x = x;
+            this.y = y;
+            this.best = best;
+        }
+    }
+
+    // Implicit k-d tree: the node of range [lo, hi) is the point at its middle,
+    // splitting on x at even depths and on y at odd ones.
+    private static class Tree {
+        final Point[] points;
+        final double[] xs, ys;
+
+        Tree(List<Point> list) {
+            points = list.toArray(new Point[0]);
+            xs = new double[points.length];
+            ys = new double[points.length];
+            build(0, points.length, 0);
+            for (int i = 0; i < points.length; i++) {
+                xs[i] = points[i].x;
+                ys[i] = points[i].y;
+            }
+        }
+
+        int size() {
+            return points.length;
+        }
+
+        private void build(int lo, int hi, int depth) {
+            if (hi - lo <= 1) return;
+            int mid = (lo + hi) >>> 1;
+            select(lo, hi-1, mid, (depth & 1) == 0);
+            build(lo, mid, depth+1);
+            build(mid+1, hi, depth+1);
+        }
+
+        private static double key(Point p, boolean byX) {
+            return byX? p.x : p.y;
+        }
+
+        // quickselect: puts the k-th smallest key at k, smaller ones before it, larger after
+        private void select(int lo, int hi, int k, boolean byX) {
+            while (lo < hi) {
+                double pivot = key(points[(lo + hi) >>> 1], byX);
+                int i = lo, j = hi;
+                while (i <= j) {
+                    while (key(points[i], byX) < pivot) i++;
+                    while (key(points[j], byX) > pivot) j--;
+                    if (i <= j) {
+                        Point t = points[i]; points[i] = points[j]; points[j] = t;
+                        i++;
+                        j--;
+                    }
+                }
+                if (k <= j) hi = j;
+                else if (k >= i) lo = i;
+                else return;
+            }
+        }
+
+        void nearest(int lo, int hi, int depth, Search s) {
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                double dx = s.x - xs[mid], dy = s.y - ys[mid];
+                double d = dx*dx + dy*dy;
+                if (d < s.best) {
+                    s.best = d;
+                    s.bestP = points[mid];
+                }
+                double diff = (depth & 1) == 0? dx : dy;
+                // search the near side first, then the far side only if the
+                // splitting line is closer than the best point so far
+                if (diff < 0) {
+                    nearest(lo, mid, depth+1, s);
+                    if (diff*diff >= s.best) return;
+                    lo = mid+1;
+                } else {
+                    nearest(mid+1, hi, depth+1, s);
+                    if (diff*diff >= s.best) return;
+                    hi = mid;
+                }
+                depth++;
+            }
+        }
+
+        void within(int lo, int hi, int depth, double x, double y, double r2, List<Point> out) {
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                double dx = x - xs[mid], dy = y - ys[mid];
+                if (dx*dx + dy*dy <= r2) out.add(points[mid]);
+                double diff = (depth & 1) == 0? dx : dy;
+                if (diff < 0) {
+                    within(lo, mid, depth+1, x, y, r2, out);
+                    if (diff*diff > r2) return;
+                    lo = mid+1;
+                } else {
+                    within(mid+1, hi, depth+1, x, y, r2, out);
+                    if (diff*diff > r2) return;
+                    hi = mid;
+                }
+                depth++;
+            }
+        }
+    }
+}
@@ -0,0 +1,135 @@
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Multi-resolution view of a point cloud for drawing: a quadtree whose every
+ * node can stand in for all of its points with a single representative.
+ * Asking for the points in a view at a given cell size returns at most about
+ * one point per cell, so the cost of drawing a zoomed-out cloud depends on
+ * the screen size instead of the number of points.
+ */
+public class PointQuadtree {
+
+    private static final int LEAF_SIZE = 8;
+    private static final int MAX_DEPTH = 24;
+
+    private final int[] order; // point indices, reordered so every node covers a contiguous range
+
+    // nodes, flattened: a node covers order[start, start+count) inside the
+    // square (x, y)-(x+size, y+size); child is the first of 4 children, or -1 for a leaf
+    private double[] nodeX, nodeY, nodeSize;
+    private int[] start, count, child;
+    private int numNodes;
+
+    public final int size;
+
+    public PointQuadtree(List<Point> points) {
+        size = points.size();
+        order = new int[size];
+        double[] xs = new double[size], ys = new double[size];
+        double x0 = Double.POSITIVE_INFINITY, y0 = Double.POSITIVE_INFINITY;
+        double x1 = Double.NEGATIVE_INFINITY, y1 = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < size; i++) {
+            Point p = points.get(i);
+            order[i] = i;
+            xs[i] = p.x;
+            ys[i] = p.y;
+            x0 = Math.min(x0, p.x); x1 = Math.max(x1, p.x);
+            y0 = Math.min(y0, p.y); y1 = Math.max(y1, p.y);
+        }
+        int cap = Math.max(16, size / 2);
+        nodeX = new double[cap];
+        nodeY = new double[cap];
+        nodeSize = new double[cap];
+        start = new int[cap];
+        count = new int[cap];
+        child = new int[cap];
+        numNodes = 1;
+        double side = size == 0? 1 : Math.max(Math.max(x1 - x0, y1 - y0), 1e-9);
+        build(0, size == 0? 0 : x0, size == 0? 0 : y0, side, 0, size, 0, xs, ys, new int[size]);
+    }
+
+    public int getNumNodes() {
+        return numNodes;
+    }
+
+    private void build(int node, double x, double y, double side, int from, int to, int depth,
+                       double[] xs, double[] ys, int[] tmp) {
+        nodeX[node] = x;
+        nodeY[node] = y;
+        nodeSize[node] = side;
+        start[node] = from;
+        count[node] = to - from;
+        child[node] = -1;
+        if (to - from <= LEAF_SIZE || depth >= MAX_DEPTH) return;
+
+        // stable counting sort of the range into its four quadrants
+        double h = side / 2, midX = x + h, midY = y + h;
+        int[] n = new int[5];
+        for (int i = from; i < to; i++) n[quadrant(order[i], midX, midY, xs, ys) + 1]++;
+        for (int q = 1; q < 5; q++) n[q] += n[q-1];
+        int[] at = n.clone();
+        for (int i = from; i < to; i++) {
+            int q = quadrant(order[i], midX, midY, xs, ys);
+            tmp[from + at[q]++] = order[i];
+        }
+        System.arraycopy(tmp, from, order, from, to - from);
+
+        int first = numNodes;
+        numNodes += 4;
+        ensureNodes(numNodes);
+        child[node] = first;
+        for (int q = 0; q < 4; q++) {
+            build(first + q, (q & 1) == 0? x : midX, (q & 2) == 0? y : midY, h,
+                  from + n[q], from + n[q+1], depth + 1, xs, ys, tmp);
+        }
+    }
+
+    private static int quadrant(int i, double midX, double midY, double[] xs, double[] ys) {
+        return (xs[i] >= midX? 1 : 0) | (ys[i] >= midY? 2 : 0);
+    }
+
+    private void ensureNodes(int n) {
+        if (n <= nodeX.length) return;
+        int cap = Math.max(n, nodeX.length * 2);
+        nodeX = Arrays.copyOf(nodeX, cap);
+        nodeY = Arrays.copyOf(nodeY, cap);
+        nodeSize = Arrays.copyOf(nodeSize, cap);
+        start = Arrays.copyOf(start, cap);
+        count = Arrays.copyOf(count, cap);
+        child = Arrays.copyOf(child, cap);
+    }
+
+    /**
+     * Writes the indices of the points to draw inside (x0, y0)-(x1, y1) to
+     * out, and returns how many there are (out is grown if needed and
+     * returned through outHolder[0]). Nodes no larger than cellSize are drawn
+     * as one representative point; leaves larger than that are drawn in full.
+     */
+    public int query(double x0, double y0, double x1, double y1, double cellSize, int[][] outHolder) {
+        int[] out = outHolder[0];
+        int n = 0;
+        if (size == 0) return 0;
+        int[] stack = new int[4*MAX_DEPTH + 4];
+        int sp = 0;
+        stack[sp++] = 0;
+        while (sp > 0) {
+            int node = stack[--sp];
+            if (count[node] == 0) continue;
+            double nx = nodeX[node], ny = nodeY[node], s = nodeSize[node];
+            if (nx > x1 || ny > y1 || nx + s < x0 || ny + s < y0) continue;
+            int c = child[node];
+            if (s <= cellSize || c < 0) {
+                int take = s <= cellSize? 1 : count[node];
+                if (n + take > out.length) {
+                    out = outHolder[0] = Arrays.copyOf(out, Math.max(n + take, out.length * 2));
+                }
+                System.arraycopy(order, start[node], out, n, take);
+                n += take;
+            } else {
+                for (int q = 3; q >= 0; q--) stack[sp++] = c + q;
+            }
+        }
+        return n;
+    }
+}
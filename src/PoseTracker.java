@@ -0,0 +1,339 @@
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Registers each revolution on its own, warm-started from a motion
+ * prediction, instead of registering all revolutions merged.
+ *
+ * The first initRevs revolutions are merged and registered from a
+ * correlative seed, like BatchICP -seed correlative. From then on every
+ * revolution's ICP starts at the pose a constant-velocity Kalman filter
+ * predicts for it, and its result is fed back into the filter as a
+ * measurement, with a covariance worked out from the ICP's own
+ * correspondence sums. The filter runs one independent (position,
+ * velocity) filter per axis over theta and over the sensor-frame position
+ * of a fixed model point (the centre of the first registration's matches)
+ * rather than over (tx, ty): the translation of a model 7 m away is
+ * mostly rotation times lever arm, so it's strongly correlated with
+ * theta, while the position of the matched points isn't, which is what
+ * makes the separate axes a fair approximation. Poses are reported as the
+ * usual (theta, tx, ty) with their full covariance.
+ *
+ * Measurements that are too far from the prediction (gate sigmas on any
+ * axis) are rejected and the revolution gets the prediction; after
+ * maxMisses in a row the filter restarts from the next measurement.
+ * Revolutions are numbered as they come, and time is in revolutions, so
+ * skipped ones just make a longer step.
+ *
+ * With deskew set, each revolution's points are first corrected for the
+ * motion during the revolution (see Deskew) with the predicted pose and
+ * velocity, and its pose is the one at the end of the revolution.
+ */
+public class PoseTracker {
+
+    /** The filtered pose of one revolution. */
+    public static final class Pose {
+        public final int rev;
+        public final int points;           // ICP points of the revolution
+        public final Transform trans;      // filtered
+        public final Transform measured;   // what ICP found, or null if it wasn't used
+        public final double[] covariance;  // 3x3, row major, over (theta, tx, ty), in rad and mm
+        public final double[] velocity;    // of (theta, tx, ty), per revolution
+        public final ICPResult result;     // null if ICP wasn't run
+
+        Pose(int rev, int points, Transform trans, Transform measured, double[] covariance, double[] velocity,
+             ICPResult result) {
+            this.rev = rev;
+            this.points = points;
+            this.trans = trans;
+            this.measured = measured;
+            this.covariance = covariance;
+            this.velocity = velocity;
+            this.result = result;
+        }
+
+        /** Standard deviation of theta (0), tx (1) or ty (2). */
+        public double sigma(int axis) {
+            return Math.sqrt(covariance[4*axis]);
+        }
+
+        public String toString() {
+            return "rev "+rev+": "+trans+" +- ("+Math.round(Math.toDegrees(sigma(0))*1000)/1000.0+" deg, "+
+                   Math.round(sigma(1)*10)/10.0+" mm, "+Math.round(sigma(2)*10)/10.0+" mm)"+
+                   (measured == null? " (predicted)" : "");
+        }
+    }
+
+    // one axis of the filter: position, velocity, and their covariance
+    private static final class Axis {
+        double x, v, pxx, pxv, pvv;
+
+        void reset(double x, double var, double velocityVar) {
+            this.x = x;
+            v = 0;
+            pxx = var;
+            pxv = 0;
+            pvv = velocityVar;
+        }
+
+        // constant velocity over dt, with white acceleration of spectral density q
+        void predict(double dt, double q) {
+            x += v*dt;
+            pxx += dt*(2*pxv + dt*pvv) + q*dt*dt*dt/3;
+            pxv += dt*pvv + q*dt*dt/2;
+            pvv += q*dt;
+        }
+
+        // innovation divided by its standard deviation
+        double normalized(double innovation, double var) {
+            return innovation / Math.sqrt(pxx + var);
+        }
+
+        void update(double innovation, double var) {
+            double s = pxx + var, kx = pxx/s, kv = pxv/s;
+            x += kx*innovation;
+            v += kv*innovation;
+            pvv -= kv*pxv;
+            pxv *= 1 - kx;
+            pxx *= 1 - kx;
+        }
+    }
+
+    private final ICPLog log;
+    private final ICP icp;
+    public final ReferenceModel model;
+    public final CorrelativeMatcher matcher;
+    public RobustKernel kernel = RobustKernel.HARD;
+    public Convergence convergence = new Convergence(); // per revolution; see the constructor
+    public int initRevs = 10;          // revolutions merged for the first registration
+    public int minPoints = 3;          // revolutions with fewer only get the prediction
+    public double accelTheta = 1e-3;   // rad/rev^2, standard deviation of the unmodelled acceleration
+    public double accelPosition = 10;  // mm/rev^2
+    public double minSigma = 5;        // mm, floor of the per-point noise used for measurement covariances
+    public double initVelocityTheta = 0.01, initVelocityPosition = 50; // rad/rev, mm/rev, standard deviations
+    public double gate = 5;            // sigmas
+    public int maxMisses = 5;
+    public boolean deskew = false;     // corrects the points passed to track() in place
+    public ScanFilter filter;          // optional, run on each revolution by track(RawScan)
+
+    public final List<Pose> poses = new ArrayList<>();
+
+    private final Axis theta = new Axis(), cx = new Axis(), cy = new Axis();
+    private double refX, refY; // the model point whose sensor-frame position (cx, cy) tracks
+    private boolean started;
+    private int lastRev, misses;
+    private final PointCloud initPoints = new PointCloud();
+    private int initCount;
+
+    public PoseTracker(ICPLog log, ReferenceModel model) {
+        this.log = log;
+        this.model = model;
+        matcher = new CorrelativeMatcher(model);
+        icp = new ICP(log, Point.fromRect(0, 0));
+        icp.reference = model;
+        // a revolution's measurement is good to several mm, so there's no point polishing it to a micrometer
+        convergence.maxIterations = 50;
+        convergence.epsTranslation = 0.5;
+        convergence.epsRotation = 5e-4;
+        convergence.epsResidual = 1e-6;
+    }
+
+    public PoseTracker(ICPLog log) {
+        this(log, ReferenceModel.TOWER);
+    }
+
+    public boolean isStarted() {
+        return started;
+    }
+
+    /** The pose predicted for revolution rev (which must come after the last one tracked). */
+    public Transform predict(int rev) {
+        if (!started) return null;
+        double dt = rev - lastRev;
+        return toTransform(theta.x + theta.v*dt, cx.x + cx.v*dt, cy.x + cy.v*dt);
+    }
+
+    /**
+     * Tracks revolution rev, given its ICP points (see ICP.getICPPoints).
+     * Returns its pose, or null while the first initRevs revolutions are
+     * collected for the first registration.
+     */
+    public Pose track(int rev, PointCloud points) {
+        icp.kernel = kernel;
+        if (!started) {
+            for (int i = 0; i < points.size; i++) {
+                initPoints.add(points.x[i], points.y[i], points.theta[i], points.dist[i], points.rev[i], points.id[i]);
+            }
+            if (++initCount < initRevs || initPoints.size == 0) return null;
+            Pose pose = start(rev, initPoints);
+            initPoints.clear();
+            initCount = 0;
+            return pose;
+        }
+
+        double dt = rev - lastRev;
+        theta.predict(dt, accelTheta*accelTheta);
+        cx.predict(dt, accelPosition*accelPosition);
+        cy.predict(dt, accelPosition*accelPosition);
+        lastRev = rev;
+        if (points.size < minPoints) return add(rev, points.size, null, null);
+
+        icp.icpTrans = toTransform(theta.x, cx.x, cy.x);
+        if (deskew) Deskew.apply(points, rev+1, icp.icpTrans, velocity(icp.icpTrans));
+        icp.lastMean = Double.POSITIVE_INFINITY; // warm-start the pose, not the outlier threshold
+        ICPResult result = icp.doICP(convergence, points);
+        double[] var = measurementVariance(result);
+        if (var == null) return add(rev, points.size, null, result);
+
+        Transform t = result.trans;
+        double dTheta = Math.IEEEremainder(t.theta - theta.x, 2*Math.PI);
+        double mx = t.cos*refX - t.sin*refY + t.tx, my = t.sin*refX + t.cos*refY + t.ty;
+        double dx = mx - cx.x, dy = my - cy.x;
+        if (Math.abs(theta.normalized(dTheta, var[0])) > gate ||
+            Math.abs(cx.normalized(dx, var[1])) > gate || Math.abs(cy.normalized(dy, var[2])) > gate) {
+            if (++misses < maxMisses) return add(rev, points.size, null, result);
+            log.debug("Pose tracker lost at revolution "+rev+", restarting");
+            return restart(rev, points.size, result, var);
+        }
+        misses = 0;
+        theta.update(dTheta, var[0]);
+        cx.update(dx, var[1]);
+        cy.update(dy, var[2]);
+        return add(rev, points.size, t, result);
+    }
+
+    /** Tracks every revolution of scan, and returns all the poses so far. */
+    public List<Pose> track(RawScan scan) {
+        for (int r = 0; r <= scan.numRevs; r++) {
+            PointCloud cloud = Revolution.toCloud(scan.theta, scan.dist, scan.getRevStart(r), scan.getRevEnd(r), r);
+            if (filter != null) cloud = filter.apply(cloud);
+            PointCloud icpPoints = new PointCloud();
+            ICP.getICPPoints(cloud, icpPoints);
+            track(r, icpPoints);
+        }
+        return poses;
+    }
+
+    // registers the first revolutions from scratch and starts the filter on them
+    private Pose start(int rev, PointCloud points) {
+        double sumX = 0, sumY = 0;
+        for (int i = 0; i < points.size; i++) {
+            sumX += points.x[i];
+            sumY += points.y[i];
+        }
+        icp.icpTrans = new Transform(0, sumX/points.size, sumY/points.size);
+        Transform seed = matcher.match(points);
+        if (seed != null) icp.icpTrans = seed;
+        icp.lastMean = Double.POSITIVE_INFINITY;
+        ICPResult result = icp.doICP(Convergence.defaults(), points);
+        double w = result.sums[ICP.SUM_W];
+        if (result.stop == ICPResult.Stop.NO_INLIERS || w <= 0) return null;
+        // track the centre of the matched model points, where theta and position decouple
+        refX = result.sums[ICP.SUM_XB] / w;
+        refY = result.sums[ICP.SUM_YB] / w;
+        lastRev = rev;
+        return restart(rev, points.size, result, measurementVariance(result));
+    }
+
+    private Pose restart(int rev, int numPoints, ICPResult result, double[] var) {
+        Transform t = result.trans;
+        theta.reset(t.theta, var[0], initVelocityTheta*initVelocityTheta);
+        cx.reset(t.cos*refX - t.sin*refY + t.tx, var[1], initVelocityPosition*initVelocityPosition);
+        cy.reset(t.sin*refX + t.cos*refY + t.ty, var[2], initVelocityPosition*initVelocityPosition);
+        started = true;
+        misses = 0;
+        return add(rev, numPoints, t, result);
+    }
+
+    /**
+     * Variances of a registration's theta and of the sensor-frame position
+     * of (refX, refY), from its final correspondence sums: each inlier is
+     * taken to have independent noise of its mean distance (at least
+     * minSigma) in x and y. Null if it had no inliers.
+     */
+    private double[] measurementVariance(ICPResult result) {
+        double[] s = result.sums;
+        double w = s[ICP.SUM_W], n = s[ICP.SUM_N];
+        if (result.stop == ICPResult.Stop.NO_INLIERS || w <= 0 || n <= 0) return null;
+        double sigma = Math.max(minSigma, s[ICP.SUM_INLIER_DISTS] / n);
+        double var = sigma*sigma;
+        // weighted spread of the points about their centre: |(Ax, Ay)| / W in ICP.fit()
+        double ax = w*(s[ICP.SXX] + s[ICP.SYY]) - s[ICP.SUM_XA]*s[ICP.SUM_XB] - s[ICP.SUM_YA]*s[ICP.SUM_YB];
+        double ay = s[ICP.SUM_XA]*s[ICP.SUM_YB] + w*(s[ICP.SYX] - s[ICP.SXY]) - s[ICP.SUM_XB]*s[ICP.SUM_YA];
+        double spread = Math.hypot(ax, ay) / w;
+        double varTheta = spread > 0? var/spread : Double.POSITIVE_INFINITY;
+        // the tracked point is off the centre of this revolution's matches by a lever arm
+        double lx = refX - s[ICP.SUM_XB]/w, ly = refY - s[ICP.SUM_YB]/w;
+        double varPos = var/w + (lx*lx + ly*ly)*varTheta;
+        return new double[] {varTheta, varPos, varPos};
+    }
+
+    // the filter's velocity of (theta, tx, ty), at pose t: tx = cx - (R ref).x, so its rate picks up theta's times the lever arm
+    private double[] velocity(Transform t) {
+        double rx = t.cos*refX - t.sin*refY, ry = t.sin*refX + t.cos*refY;
+        return new double[] {theta.v, cx.v + theta.v*ry, cy.v - theta.v*rx};
+    }
+
+    private Transform toTransform(double th, double x, double y) {
+        double cos = Math.cos(th), sin = Math.sin(th);
+        return new Transform(th, x - (cos*refX - sin*refY), y - (sin*refX + cos*refY), sin, cos);
+    }
+
+    // the filter's current state as a pose, with the covariance of (theta, cx, cy) taken over to (theta, tx, ty)
+    private Pose add(int rev, int numPoints, Transform measured, ICPResult result) {
+        Transform t = toTransform(theta.x, cx.x, cy.x);
+        // tx = cx - (R ref).x, ty = cy - (R ref).y, so d(tx, ty)/dtheta = ((R ref).y, -(R ref).x)
+        double rx = t.cos*refX - t.sin*refY, ry = t.sin*refX + t.cos*refY;
+        double vt = theta.pxx;
+        double[] cov = {
+            vt,     ry*vt,              -rx*vt,
+            ry*vt,  cx.pxx + ry*ry*vt,  -rx*ry*vt,
+            -rx*vt, -rx*ry*vt,          cy.pxx + rx*rx*vt
+        };
+        Pose pose = new Pose(rev, numPoints, t, measured, cov, velocity(t), result);
+        poses.add(pose);
+        return pose;
+    }
+
+    /**
+     * Tracks a recorded scan revolution by revolution and prints the pose
+     * series as CSV, with a summary on stderr.
+     * Usage: java PoseTracker [-deskew] scan.txt
+     */
+    public static void main(String[] args) throws Exception {
+        System.setProperty("java.awt.headless", "true");
+        boolean deskew = args.length > 0 && args[0].equals("-deskew");
+        int a = deskew? 1 : 0;
+        if (args.length != a+1) {
+            System.err.println("usage: java PoseTracker [-deskew] scan.txt");
+            System.exit(2);
+        }
+        File file = new File(args[a]);
+        RawScan scan = file.getName().endsWith(ScanFile.EXTENSION)? ScanFile.open(file).readAll()
+                                                                    : ScanParser.parse(file, ICPLog.SILENT);
+        PoseTracker tracker = new PoseTracker(ICPLog.SILENT);
+        tracker.deskew = deskew;
+        long start = System.nanoTime();
+        List<Pose> poses = tracker.track(scan);
+        long nanos = System.nanoTime() - start;
+
+        System.out.println("rev,points,measured,iterations,ms,theta_deg,tx,ty,sd_theta_deg,sd_tx,sd_ty");
+        int measured = 0, iterations = 0, runs = 0;
+        for (Pose p : poses) {
+            ICPResult r = p.result;
+            System.out.println(p.rev+","+p.points+","+(p.measured != null)+","+(r == null? 0 : r.iterations)+","+
+                               (r == null? 0 : r.totalNanos/1e6)+","+Math.toDegrees(p.trans.theta)+","+
+                               p.trans.tx+","+p.trans.ty+","+Math.toDegrees(p.sigma(0))+","+
+                               p.sigma(1)+","+p.sigma(2));
+            if (p.measured != null) measured++;
+            if (r != null && p != poses.get(0)) {
+                iterations += r.iterations;
+                runs++;
+            }
+        }
+        System.err.println(poses.size()+" poses ("+measured+" measured), "+
+                           (runs > 0? Math.round(10.0*iterations/runs)/10.0 : 0)+" ICP iterations per revolution, "+
+                           Math.round(nanos/1e4)/100.0+" ms in all");
+    }
+}
@@ -0,0 +1,104 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Samples of a scan file in primitive arrays, in file order.
+ * Each revolution is a contiguous run [revStart[r], revStart[r+1]) and is
+ * already sorted by theta, since a drop in theta is what starts a new one.
+ */
+public class RawScan {
+
+    public double[] theta, dist; // radians, millimeters
+    public int size;
+    public int[] revStart = new int[16];
+    public int numRevs; // completed revolutions (the index of the last, partial one)
+
+    public RawScan(int capacity) {
+        theta = new double[Math.max(capacity, 16)];
+        dist = new double[theta.length];
+    }
+
+    public void add(double t, double d) {
+        if (size == theta.length) {
+            theta = Arrays.copyOf(theta, size*2);
+            dist = Arrays.copyOf(dist, size*2);
+        }
+        theta[size] = t;
+        dist[size] = d;
+        size++;
+    }
+
+    // starts revolution numRevs+1 at the next added sample
+    public void newRev() {
+        numRevs++;
+        if (numRevs+1 >= revStart.length) revStart = Arrays.copyOf(revStart, revStart.length*2);
+        revStart[numRevs] = size;
+    }
+
+    public int getRevStart(int rev) {
+        return revStart[rev];
+    }
+
+    public int getRevEnd(int rev) {
+        return rev < numRevs? revStart[rev+1] : size;
+    }
+
+    /**
+     * Returns the indices of all samples sorted by theta, ties broken by file
+     * order (i.e. the same order as a stable sort), using a k-way merge of the
+     * already-sorted revolutions.
+     */
+    public int[] getSortedOrder() {
+        int k = numRevs+1;
+        int[] cur = new int[k], end = new int[k];
+        int[] heap = new int[k];
+        int heapSize = 0;
+        for (int r = 0; r < k; r++) {
+            cur[r] = getRevStart(r);
+            end[r] = getRevEnd(r);
+            if (cur[r] < end[r]) heap[heapSize++] = r;
+        }
+        for (int i = heapSize/2 - 1; i >= 0; i--) siftDown(heap, heapSize, i, cur);
+
+        int[] order = new int[size];
+        for (int n = 0; n < size; n++) {
+            int r = heap[0];
+            order[n] = cur[r]++;
+            if (cur[r] == end[r]) heap[0] = heap[--heapSize];
+            siftDown(heap, heapSize, 0, cur);
+        }
+        return order;
+    }
+
+    private boolean before(int r1, int r2, int[] cur) {
+        double t1 = theta[cur[r1]], t2 = theta[cur[r2]];
+        return t1 < t2 || (t1 == t2 && r1 < r2);
+    }
+
+    private void siftDown(int[] heap, int heapSize, int i, int[] cur) {
+        while (true) {
+            int l = 2*i + 1, r = l + 1, min = i;
+            if (l < heapSize && before(heap[l], heap[min], cur)) min = l;
+            if (r < heapSize && before(heap[r], heap[min], cur)) min = r;
+            if (min == i) return;
+            int tmp = heap[i]; heap[i] = heap[min]; heap[min] = tmp;
+            i = min;
+        }
+    }
+
+    public ArrayList<Point> toPoints() {
+        ArrayList<Point> points = new ArrayList<>(size);
+        int rev = 0;
+        int[] revNums = new int[size];
+        for (int i = 0; i < size; i++) {
+            while (rev < numRevs && revStart[rev+1] <= i) rev++;
+            revNums[i] = rev;
+        }
+        for (int i : getSortedOrder()) {
+            Point p = Point.fromPolar(theta[i], dist[i]);
+            p.revNum = revNums[i];
+            points.add(p);
+        }
+        return points;
+    }
+}
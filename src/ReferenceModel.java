@@ -32,21 +32,50 @@ class ReferenceModel {
     
     public final Segment[] segments;
     
+    // below this many segments a linear scan beats the index
+    public static final int INDEX_MIN_SEGMENTS = 32;
+    private final SegmentIndex index;
+    
     public ReferenceModel(Segment... ss) {
         segments = ss;
+        index = ss.length >= INDEX_MIN_SEGMENTS? new SegmentIndex(ss) : null;
     }
     
-    public Point getClosestPoint(Point p) {
+    public Segment getClosestSegment(double x, double y) {
+        if (index != null) return index.getClosestSegment(x, y);
         double minDist = Double.POSITIVE_INFINITY;
         Segment minSeg = null;
         for (Segment s : segments) {
-            double dist = s.getDistanceSq(p);
+            double dist = s.getDistanceSq(x, y);
             if (dist < minDist) {
                 minDist = dist;
                 minSeg = s;
             }
         }
-        return minSeg.getClosestPoint(p);
+        return minSeg;
+    }
+    
+    public Point getClosestPoint(Point p) {
+        return getClosestSegment(p.x, p.y).getClosestPoint(p);
+    }
+    
+    /**
+     * Batched getClosestPoint() over points [0, src.size): writes the closest
+     * model point to (outX[i], outY[i]) and its distance to outDist[i].
+     * Allocates nothing.
+     */
+    public void closestPoints(PointCloud src, double[] outX, double[] outY, double[] outDist) {
+        closestPoints(src, 0, src.size, outX, outY, outDist);
+    }
+    
+    public void closestPoints(PointCloud src, int from, int to, double[] outX, double[] outY, double[] outDist) {
+        final double[] xs = src.x, ys = src.y;
+        for (int i = from; i < to; i++) {
+            double x = xs[i], y = ys[i];
+            getClosestSegment(x, y).getClosestPoint(x, y, outX, outY, i);
+            double dx = x-outX[i], dy = y-outY[i];
+            outDist[i] = Math.sqrt(dx*dx + dy*dy);
+        }
     }
     
     public static final Stroke stroke = new BasicStroke(8.0f, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND);
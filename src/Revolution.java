@@ -0,0 +1,29 @@
+/** One revolution of a scan: its points in theta order, and when it was completed. */
+public class Revolution {
+
+    public final int index;
+    public final long timeNanos; // System.nanoTime() when the last sample arrived
+    public final PointCloud points;
+
+    public Revolution(int index, long timeNanos, PointCloud points) {
+        this.index = index;
+        this.timeNanos = timeNanos;
+        this.points = points;
+    }
+
+    /** Converts polar samples [from, to) to a cloud, applying the usual loader filters. */
+    public static PointCloud toCloud(double[] theta, double[] dist, int from, int to, int rev) {
+        PointCloud cloud = new PointCloud(Math.max(to - from, 1));
+        for (int i = from; i < to; i++) {
+            double t = theta[i], d = dist[i];
+            if (d == 0) continue;
+            if (ScanLoader.CULL_CLOSE && d < 1900) continue;
+            cloud.add(d*Math.cos(t), d*Math.sin(t), t, d, rev, cloud.size);
+        }
+        return cloud;
+    }
+
+    public String toString() {
+        return "Revolution "+index+" ("+points.size+" points)";
+    }
+}
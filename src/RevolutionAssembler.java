@@ -0,0 +1,33 @@
+import java.util.Arrays;
+
+/** Collects samples as they arrive and cuts them into revolutions where theta wraps around. */
+public class RevolutionAssembler {
+
+    private double[] theta = new double[1024], dist = new double[1024];
+    private int size;
+    private double lastTheta = -1;
+    private int rev;
+
+    /** Adds a sample (theta in radians); returns the revolution it completed, if any. */
+    public Revolution add(double t, double d) {
+        Revolution done = null;
+        if (t < lastTheta) done = flush();
+        lastTheta = t;
+        if (size == theta.length) {
+            theta = Arrays.copyOf(theta, size*2);
+            dist = Arrays.copyOf(dist, size*2);
+        }
+        theta[size] = t;
+        dist[size] = d;
+        size++;
+        return done;
+    }
+
+    /** Returns whatever has been collected as a (possibly partial) revolution, or null if nothing has. */
+    public Revolution flush() {
+        if (size == 0) return null;
+        Revolution r = new Revolution(rev++, System.nanoTime(), Revolution.toCloud(theta, dist, 0, size, rev-1));
+        size = 0;
+        return r;
+    }
+}
@@ -0,0 +1,58 @@
+import java.util.ArrayDeque;
+
+/**
+ * Bounded hand-off between the scan source and the registration stage.
+ * BLOCK applies backpressure to the source; DROP_OLDEST throws away the
+ * stalest revolution instead, so the newest one is always processed next.
+ */
+public class RevolutionQueue {
+
+    public enum Policy { BLOCK, DROP_OLDEST }
+
+    private final ArrayDeque<Revolution> queue = new ArrayDeque<>();
+    private final int capacity;
+    private final Policy policy;
+    private boolean closed;
+    private long dropped;
+
+    public RevolutionQueue(int capacity, Policy policy) {
+        if (capacity < 1) throw new IllegalArgumentException("capacity must be at least 1");
+        this.capacity = capacity;
+        this.policy = policy;
+    }
+
+    public synchronized void put(Revolution rev) throws InterruptedException {
+        while (queue.size() >= capacity && !closed) {
+            if (policy == Policy.DROP_OLDEST) {
+                queue.poll();
+                dropped++;
+            } else {
+                wait();
+            }
+        }
+        if (closed) return;
+        queue.add(rev);
+        notifyAll();
+    }
+
+    /** Blocks for the next revolution; returns null once the queue is closed and drained. */
+    public synchronized Revolution take() throws InterruptedException {
+        while (queue.isEmpty() && !closed) wait();
+        Revolution rev = queue.poll();
+        notifyAll();
+        return rev;
+    }
+
+    public synchronized void close() {
+        closed = true;
+        notifyAll();
+    }
+
+    public synchronized long getDropped() {
+        return dropped;
+    }
+
+    public synchronized int size() {
+        return queue.size();
+    }
+}
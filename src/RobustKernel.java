@@ -0,0 +1,133 @@
+/**
+ * How much each correspondence counts in an ICP update, by its distance.
+ *
+ * Every pass first picks a scale from the pass's distances, then weighs
+ * each pair; pairs with weight 0 are outliers. HARD is the original rule
+ * (everything under the previous pass's mean distance counts fully). The
+ * M-estimators scale their tuning constant by a robust sigma of the current
+ * pass (1.4826 times the median distance), and TRIMMED keeps a fixed
+ * fraction of the closest pairs.
+ */
+public class RobustKernel {
+
+    public enum Type { HARD, HUBER, TUKEY, CAUCHY, TRIMMED }
+
+    public final Type type;
+    public final double param; // tuning constant in sigmas, the mean multiplier for HARD, or the fraction kept for TRIMMED
+
+    private static final double MAD_TO_SIGMA = 1.4826;
+    private static final double MIN_SCALE = 1e-6; // mm, so a perfect fit doesn't divide by zero
+
+    public static final RobustKernel HARD = new RobustKernel(Type.HARD, ICP.OUTLIER_THRESH);
+
+    public RobustKernel(Type type, double param) {
+        this.type = type;
+        this.param = param;
+    }
+
+    // the usual 95%-efficiency tuning constants
+    public static RobustKernel huber()  { return new RobustKernel(Type.HUBER, 1.345); }
+    public static RobustKernel tukey()  { return new RobustKernel(Type.TUKEY, 4.685); }
+    public static RobustKernel cauchy() { return new RobustKernel(Type.CAUCHY, 2.385); }
+
+    public static RobustKernel trimmed(double fraction) {
+        return new RobustKernel(Type.TRIMMED, fraction);
+    }
+
+    /**
+     * Parses "hard", "huber", "tukey", "cauchy" or "trimmed", each optionally
+     * followed by ":param": a positive, finite tuning constant (or mean
+     * multiplier), or for trimmed the fraction kept, in (0, 1].
+     */
+    public static RobustKernel parse(String str) {
+        int colon = str.indexOf(':');
+        String name = colon < 0? str : str.substring(0, colon);
+        Type type = Type.valueOf(name.toUpperCase());
+        if (colon >= 0) {
+            double param = Double.parseDouble(str.substring(colon+1));
+            if (type == Type.TRIMMED? !(param > 0 && param <= 1) : !(param > 0 && param < Double.POSITIVE_INFINITY)) {
+                throw new IllegalArgumentException("parameter out of range in \""+str+"\" (must be in "+
+                                                   (type == Type.TRIMMED? "(0, 1]" : "(0, inf)")+")");
+            }
+            return new RobustKernel(type, param);
+        }
+        switch (type) {
+            case HARD:    return HARD;
+            case HUBER:   return huber();
+            case TUKEY:   return tukey();
+            case CAUCHY:  return cauchy();
+            default:      return trimmed(0.8);
+        }
+    }
+
+    /**
+     * The scale of one pass, from its distances dists[0, size) and the
+     * previous pass's mean distance. scratch must hold size values; dists
+     * isn't modified.
+     */
+    public double scale(double[] dists, int size, double lastMean, double[] scratch) {
+        switch (type) {
+            case HARD:
+                return lastMean*param;
+            case TRIMMED: {
+                if (size == 0) return 0;
+                int k = Math.min(size-1, Math.max(0, (int)Math.ceil(param*size) - 1));
+                System.arraycopy(dists, 0, scratch, 0, size);
+                return select(scratch, size, k);
+            }
+            default: {
+                if (size == 0) return MIN_SCALE;
+                System.arraycopy(dists, 0, scratch, 0, size);
+                double sigma = MAD_TO_SIGMA * select(scratch, size, size/2);
+                return Math.max(param*sigma, MIN_SCALE);
+            }
+        }
+    }
+
+    /** The weight of a pair at distance dist, given the pass's scale. */
+    public double weight(double dist, double scale) {
+        switch (type) {
+            case HARD:
+                return dist < scale? 1 : 0;
+            case TRIMMED:
+                return dist <= scale? 1 : 0;
+            case HUBER:
+                return dist <= scale? 1 : scale/dist;
+            case TUKEY: {
+                if (dist >= scale) return 0;
+                double u = dist/scale, v = 1 - u*u;
+                return v*v;
+            }
+            default: { // CAUCHY
+                double u = dist/scale;
+                return 1 / (1 + u*u);
+            }
+        }
+    }
+
+    // quickselect: the k-th smallest of a[0, size), reordering a
+    private static double select(double[] a, int size, int k) {
+        int lo = 0, hi = size-1;
+        while (lo < hi) {
+            double pivot = a[(lo + hi) >>> 1];
+            int i = lo, j = hi;
+            while (i <= j) {
+                while (a[i] < pivot) i++;
+                while (a[j] > pivot) j--;
+                if (i <= j) {
+                    double t = a[i]; a[i] = a[j]; a[j] = t;
+                    i++;
+                    j--;
+                }
+            }
+            if (k <= j) hi = j;
+            else if (k >= i) lo = i;
+            else break;
+        }
+        return a[k];
+    }
+
+    public String toString() {
+        return this == HARD? "hard" : type.name().toLowerCase()+":"+param;
+    }
+}
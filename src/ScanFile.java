@@ -0,0 +1,203 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Binary scan container (.lscan), so big recordings can be opened without
+ * parsing anything. Layout, little-endian:
+ *
+ *   int   magic ("LSCN"), version, record format
+ *   int   numRevs (completed revolutions, as in RawScan)
+ *   long  size (number of samples)
+ *   long  revStart[numRevs+2]  sample index of each revolution's first record, then size
+ *   records, one per sample:  float theta (radians), then
+ *                             u16 distance (mm) for FORMAT_U16, or float for FORMAT_F32
+ *
+ * Only the header and index are read when opening (and checked: the index
+ * must run from 0 to size without going backwards); each revolution is
+ * mapped on demand, so opening revolution N is O(1) however big the file is.
+ * A converted file doesn't track its source, so callers that have both
+ * check isUpToDate() and parse the text when it was edited since.
+ *
+ * Usage (converter): java ScanFile scan.txt...   writes scan.lscan next to each file
+ */
+public class ScanFile implements Closeable {
+
+    public static final int MAGIC = 'L' | 'S'<<8 | 'C'<<16 | 'N'<<24;
+    public static final int VERSION = 1;
+    public static final int FORMAT_U16 = 0; // integer millimeter distances up to 65535
+    public static final int FORMAT_F32 = 1;
+    public static final String EXTENSION = ".lscan";
+
+    private final FileChannel channel;
+    public final int format, recordSize;
+    public final int numRevs;
+    public final long size;
+    private final long[] revStart;
+    private final long dataStart;
+
+    private ScanFile(FileChannel channel) throws IOException {
+        this.channel = channel;
+        ByteBuffer header = ByteBuffer.allocate(24).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(header, 0);
+        if (header.getInt(0) != MAGIC) throw new IOException("not a scan file");
+        if (header.getInt(4) != VERSION) throw new IOException("unsupported scan file version "+header.getInt(4));
+        format = header.getInt(8);
+        if (format != FORMAT_U16 && format != FORMAT_F32) throw new IOException("bad record format "+format);
+        recordSize = format == FORMAT_U16? 6 : 8;
+        numRevs = header.getInt(12);
+        size = header.getLong(16);
+        if (numRevs < 0 || size < 0) throw new IOException("bad scan file header");
+        if (24 + 8L*(numRevs+2) > channel.size()) throw new IOException("truncated scan file");
+
+        ByteBuffer index = ByteBuffer.allocate(8*(numRevs+2)).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(index, 24);
+        revStart = new long[numRevs+2];
+        index.flip();
+        index.asLongBuffer().get(revStart);
+        dataStart = 24 + 8L*(numRevs+2);
+        // every revolution's records must lie within the samples, in order
+        if (revStart[0] != 0 || revStart[numRevs+1] != size) throw new IOException("bad revolution index");
+        for (int rev = 0; rev <= numRevs; rev++) {
+            if (revStart[rev+1] < revStart[rev]) throw new IOException("bad revolution index");
+        }
+        if (size > (channel.size() - dataStart) / recordSize) throw new IOException("truncated scan file");
+    }
+
+    /**
+     * Whether scanFile can stand in for the text scan it was converted from:
+     * not if textFile was modified after it (the text was edited since).
+     */
+    public static boolean isUpToDate(File scanFile, File textFile) {
+        return !textFile.exists() || scanFile.lastModified() >= textFile.lastModified();
+    }
+
+    private void readFully(ByteBuffer buf, long pos) throws IOException {
+        while (buf.hasRemaining()) {
+            if (channel.read(buf, pos + buf.position()) < 0) throw new EOFException("truncated scan file");
+        }
+    }
+
+    public static ScanFile open(File file) throws IOException {
+        FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            return new ScanFile(ch);
+        } catch (IOException | RuntimeException e) {
+            ch.close();
+            throw e;
+        }
+    }
+
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    public long getRevSize(int rev) {
+        return revStart[rev+1] - revStart[rev];
+    }
+
+    /** Maps the records of revolutions [fromRev, toRev), positioned at the first one. */
+    public MappedByteBuffer mapRevs(int fromRev, int toRev) throws IOException {
+        long from = dataStart + revStart[fromRev]*recordSize;
+        long len = (revStart[toRev] - revStart[fromRev])*recordSize;
+        MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, from, len);
+        buf.order(ByteOrder.LITTLE_ENDIAN);
+        return buf;
+    }
+
+    public MappedByteBuffer mapRev(int rev) throws IOException {
+        return mapRevs(rev, rev+1);
+    }
+
+    public double getTheta(ByteBuffer records, int i) {
+        return records.getFloat(i*recordSize);
+    }
+
+    public double getDist(ByteBuffer records, int i) {
+        int off = i*recordSize + 4;
+        return format == FORMAT_U16? records.getChar(off) : records.getFloat(off);
+    }
+
+    /** Copies revolutions [fromRev, toRev) into a RawScan (renumbered from 0). */
+    public RawScan read(int fromRev, int toRev) throws IOException {
+        long n = revStart[toRev] - revStart[fromRev];
+        if (n*recordSize > Integer.MAX_VALUE) throw new IOException("too many samples to read at once");
+        RawScan scan = new RawScan((int)n);
+        ByteBuffer records = mapRevs(fromRev, toRev);
+        int i = 0;
+        for (int rev = fromRev; rev < toRev; rev++) {
+            if (rev > fromRev) scan.newRev();
+            for (long end = i + getRevSize(rev); i < end; i++) {
+                scan.add(getTheta(records, i), getDist(records, i));
+            }
+        }
+        return scan;
+    }
+
+    public RawScan readAll() throws IOException {
+        return read(0, numRevs+1);
+    }
+
+
+    public static void write(RawScan scan, File file) throws IOException {
+        int format = FORMAT_U16;
+        for (int i = 0; i < scan.size; i++) {
+            double d = scan.dist[i];
+            if (d != Math.rint(d) || d < 0 || d > 0xFFFF) {
+                format = FORMAT_F32;
+                break;
+            }
+        }
+        int recordSize = format == FORMAT_U16? 6 : 8;
+
+        ByteBuffer buf = ByteBuffer.allocate(1<<16).order(ByteOrder.LITTLE_ENDIAN);
+        try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                                               StandardOpenOption.WRITE,
+                                               StandardOpenOption.TRUNCATE_EXISTING)) {
+            buf.putInt(MAGIC).putInt(VERSION).putInt(format).putInt(scan.numRevs).putLong(scan.size);
+            for (int rev = 0; rev <= scan.numRevs; rev++) {
+                flushIfFull(ch, buf, 8);
+                buf.putLong(scan.getRevStart(rev));
+            }
+            flushIfFull(ch, buf, 8);
+            buf.putLong(scan.size);
+            for (int i = 0; i < scan.size; i++) {
+                flushIfFull(ch, buf, recordSize);
+                buf.putFloat((float)scan.theta[i]);
+                if (format == FORMAT_U16) buf.putChar((char)scan.dist[i]);
+                else buf.putFloat((float)scan.dist[i]);
+            }
+            flushIfFull(ch, buf, buf.capacity());
+        }
+    }
+
+    private static void flushIfFull(FileChannel ch, ByteBuffer buf, int needed) throws IOException {
+        if (buf.remaining() >= needed) return;
+        buf.flip();
+        while (buf.hasRemaining()) ch.write(buf);
+        buf.clear();
+    }
+
+    public static File convert(File textFile, ICPLog log) throws IOException {
+        String name = textFile.getName();
+        int dot = name.lastIndexOf('.');
+        if (dot > 0) name = name.substring(0, dot);
+        File out = new File(textFile.getParentFile(), name+EXTENSION);
+        write(ScanParser.parse(textFile, log), out);
+        return out;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("usage: java ScanFile scan.txt...");
+            System.exit(2);
+        }
+        for (String arg : args) {
+            File out = convert(new File(arg), ICPLog.SILENT);
+            System.out.println(arg+" -> "+out+" ("+out.length()/1000+" kB)");
+        }
+    }
+}
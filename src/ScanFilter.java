@@ -0,0 +1,334 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * One stage of scan preprocessing: copies the points of a cloud that pass
+ * it (or, for the downsamplers, their averages) to another cloud. Stages
+ * compose with chain(), which runs them through two reused buffers, so a
+ * chain allocates nothing once it has seen its biggest input.
+ *
+ * Input clouds are in theta order: one revolution, or a merged scan sorted
+ * by theta (ScanLoader's order). That's what lets every stage be a single
+ * streaming pass over the primitive columns: a point's candidate
+ * neighbours are the ones next to it in order, within window samples on
+ * either side (in a merged scan of n revolutions, each sample has about n
+ * others at nearly the same theta, so the window should grow with n). The
+ * stages:
+ *
+ *   range:min:max           keep ranges in [min, max] mm
+ *   roi:x0:y0:x1:y1         keep points inside the box (ICP.keepPointForICP is roi:6000:-7000:8000:7000)
+ *   angular:deg             average the points in each theta bin of deg degrees
+ *   voxel:mm                average the points in each square cell; the output is in the order the
+ *                           cells were first hit, which is only roughly theta order, so
+ *                           neighbour stages go before it
+ *   radius:mm:count[:window]    drop points with fewer than count neighbours within mm
+ *   stat:k:sigmas[:window]      drop points whose mean distance to their k nearest neighbours is more
+ *                               than sigmas standard deviations over the cloud's mean of that
+ *   shadow:deg[:window]     drop the farther point of any pair from the same revolution whose
+ *                           connecting line is within deg of the beam (veiling points between an
+ *                           edge and what's behind it)
+ *
+ * parse() reads a comma-separated list of those into a chain, rejecting
+ * parameters out of range (sizes, steps and radii must be positive, k and
+ * windows at least 1, counts and angles at least 0). Stages keep their
+ * buffers between calls, so each thread needs its own.
+ */
+public abstract class ScanFilter {
+
+    public static final int DEFAULT_WINDOW = 8;
+
+    /** Appends what passes of in (which must be in theta order) to out. */
+    public abstract void apply(PointCloud in, PointCloud out);
+
+    /** Filters in into a new cloud. */
+    public PointCloud apply(PointCloud in) {
+        PointCloud out = new PointCloud(Math.max(in.size, 1));
+        apply(in, out);
+        return out;
+    }
+
+    static void copy(PointCloud in, int i, PointCloud out) {
+        out.add(in.x[i], in.y[i], in.theta[i], in.dist[i], in.rev[i], in.id[i]);
+    }
+
+    static double distSq(PointCloud c, int i, int j) {
+        double dx = c.x[i] - c.x[j], dy = c.y[i] - c.y[j];
+        return dx*dx + dy*dy;
+    }
+
+    public static ScanFilter range(double min, double max) {
+        return new ScanFilter() {
+            public void apply(PointCloud in, PointCloud out) {
+                for (int i = 0; i < in.size; i++) {
+                    if (in.dist[i] >= min && in.dist[i] <= max) copy(in, i, out);
+                }
+            }
+            public String toString() { return "range:"+min+":"+max; }
+        };
+    }
+
+    public static ScanFilter roi(double x0, double y0, double x1, double y1) {
+        return new ScanFilter() {
+            public void apply(PointCloud in, PointCloud out) {
+                for (int i = 0; i < in.size; i++) {
+                    double x = in.x[i], y = in.y[i];
+                    if (x > x0 && x < x1 && y > y0 && y < y1) copy(in, i, out);
+                }
+            }
+            public String toString() { return "roi:"+x0+":"+y0+":"+x1+":"+y1; }
+        };
+    }
+
+    /** Downsamples to the mean of each run of points in the same step-radian theta bin. */
+    public static ScanFilter angular(double step) {
+        return new ScanFilter() {
+            public void apply(PointCloud in, PointCloud out) {
+                int start = 0;
+                for (int i = 1; i <= in.size; i++) {
+                    if (i < in.size && Math.floor(in.theta[i]/step) == Math.floor(in.theta[start]/step)) continue;
+                    double sx = 0, sy = 0, st = 0, sd = 0;
+                    for (int j = start; j < i; j++) {
+                        sx += in.x[j]; sy += in.y[j];
+                        st += in.theta[j]; sd += in.dist[j];
+                    }
+                    int n = i - start;
+                    if (n > 0) out.add(sx/n, sy/n, st/n, sd/n, in.rev[start], in.id[start]);
+                    start = i;
+                }
+            }
+            public String toString() { return "angular:"+Math.toDegrees(step); }
+        };
+    }
+
+    /** Downsamples to the mean of the points in each size by size cell. */
+    public static ScanFilter voxel(double size) {
+        return new ScanFilter() {
+            // open addressing from cell to output index
+            private long[] keys = new long[0];
+            private int[] slots = new int[0];
+            private int[] counts = new int[0];
+
+            public void apply(PointCloud in, PointCloud out) {
+                int cap = Integer.highestOneBit(Math.max(2*in.size, 16)) << 1;
+                if (keys.length < cap) {
+                    keys = new long[cap];
+                    slots = new int[cap];
+                    counts = new int[cap];
+                }
+                int mask = cap - 1, first = out.size;
+                Arrays.fill(slots, 0, cap, -1);
+                for (int i = 0; i < in.size; i++) {
+                    long key = ((long)(int)Math.floor(in.x[i]/size) << 32) ^ ((int)Math.floor(in.y[i]/size) & 0xffffffffL);
+                    int h = (int)((key * 0x9E3779B97F4A7C15L) >>> 40) & mask;
+                    while (slots[h] >= 0 && keys[h] != key) h = (h+1) & mask;
+                    if (slots[h] < 0) {
+                        keys[h] = key;
+                        slots[h] = out.size;
+                        copy(in, i, out);
+                        counts[out.size - 1 - first] = 1;
+                        continue;
+                    }
+                    // running sums; divided by the counts below
+                    int o = slots[h];
+                    out.x[o] += in.x[i];
+                    out.y[o] += in.y[i];
+                    counts[o - first]++;
+                }
+                for (int o = first; o < out.size; o++) {
+                    int n = counts[o - first];
+                    if (n == 1) continue;
+                    out.x[o] /= n;
+                    out.y[o] /= n;
+                    double theta = Math.atan2(out.y[o], out.x[o]);
+                    out.theta[o] = (float)(theta < 0? theta + 2*Math.PI : theta);
+                    out.dist[o] = (float)Math.hypot(out.x[o], out.y[o]);
+                }
+            }
+            public String toString() { return "voxel:"+size; }
+        };
+    }
+
+    public static ScanFilter radiusOutliers(double radius, int minNeighbours, int window) {
+        return new ScanFilter() {
+            public void apply(PointCloud in, PointCloud out) {
+                double r2 = radius*radius;
+                for (int i = 0; i < in.size; i++) {
+                    int count = 0;
+                    int to = Math.min(in.size, i+window+1);
+                    for (int j = Math.max(0, i-window); j < to && count < minNeighbours; j++) {
+                        if (j != i && distSq(in, i, j) <= r2) count++;
+                    }
+                    if (count >= minNeighbours) copy(in, i, out);
+                }
+            }
+            public String toString() { return "radius:"+radius+":"+minNeighbours+":"+window; }
+        };
+    }
+
+    public static ScanFilter statisticalOutliers(int k, double sigmas, int window) {
+        return new ScanFilter() {
+            private double[] meanDists = new double[0];
+            private final double[] nearest = new double[k];
+
+            public void apply(PointCloud in, PointCloud out) {
+                if (meanDists.length < in.size) meanDists = new double[in.size];
+                // each point's mean distance to its k nearest neighbours in the window
+                double sum = 0, sumSq = 0;
+                int n = 0;
+                for (int i = 0; i < in.size; i++) {
+                    int found = 0;
+                    int to = Math.min(in.size, i+window+1);
+                    for (int j = Math.max(0, i-window); j < to; j++) {
+                        if (j == i) continue;
+                        double d = distSq(in, i, j);
+                        if (found == k && d >= nearest[k-1]) continue;
+                        int p = found < k? found++ : k-1;
+                        while (p > 0 && nearest[p-1] > d) {
+                            nearest[p] = nearest[p-1];
+                            p--;
+                        }
+                        nearest[p] = d;
+                    }
+                    double m = 0;
+                    for (int q = 0; q < found; q++) m += Math.sqrt(nearest[q]);
+                    meanDists[i] = found > 0? m/found : Double.POSITIVE_INFINITY;
+                    if (found > 0) {
+                        sum += meanDists[i];
+                        sumSq += meanDists[i]*meanDists[i];
+                        n++;
+                    }
+                }
+                double mean = n > 0? sum/n : 0;
+                double limit = mean + sigmas*Math.sqrt(n > 0? Math.max(0, sumSq/n - mean*mean) : 0);
+                for (int i = 0; i < in.size; i++) {
+                    if (meanDists[i] <= limit) copy(in, i, out);
+                }
+            }
+            public String toString() { return "stat:"+k+":"+sigmas+":"+window; }
+        };
+    }
+
+    public static ScanFilter shadows(double minAngle, int window) {
+        return new ScanFilter() {
+            private boolean[] drop = new boolean[0];
+
+            public void apply(PointCloud in, PointCloud out) {
+                if (drop.length < in.size) drop = new boolean[in.size];
+                Arrays.fill(drop, 0, in.size, false);
+                for (int i = 0; i < in.size; i++) {
+                    int to = Math.min(in.size, i+window+1);
+                    for (int j = i+1; j < to; j++) {
+                        double phi = in.theta[j] - in.theta[i];
+                        if (in.rev[j] != in.rev[i] || phi == 0) continue;
+                        // the angle at point i between the beam and the line to point j
+                        double r1 = in.dist[i], r2 = in.dist[j];
+                        double a = Math.atan2(r2*Math.abs(Math.sin(phi)), r1 - r2*Math.cos(phi));
+                        if (a < minAngle || a > Math.PI - minAngle) {
+                            if (r1 > r2) drop[i] = true;
+                            else drop[j] = true;
+                        }
+                    }
+                }
+                for (int i = 0; i < in.size; i++) {
+                    if (!drop[i]) copy(in, i, out);
+                }
+            }
+            public String toString() { return "shadow:"+Math.toDegrees(minAngle)+":"+window; }
+        };
+    }
+
+    /** Runs filters one after another. */
+    public static ScanFilter chain(ScanFilter... filters) {
+        return chain(Arrays.asList(filters));
+    }
+
+    public static ScanFilter chain(List<ScanFilter> filters) {
+        final ScanFilter[] stages = filters.toArray(new ScanFilter[0]);
+        return new ScanFilter() {
+            private final PointCloud a = new PointCloud(), b = new PointCloud();
+
+            public void apply(PointCloud in, PointCloud out) {
+                PointCloud src = in;
+                for (int s = 0; s < stages.length; s++) {
+                    if (s == stages.length-1) {
+                        stages[s].apply(src, out);
+                        return;
+                    }
+                    PointCloud dst = src == a? b : a;
+                    dst.clear();
+                    stages[s].apply(src, dst);
+                    src = dst;
+                }
+                for (int i = 0; i < in.size; i++) copy(in, i, out);
+            }
+            public String toString() {
+                StringBuilder sb = new StringBuilder();
+                for (ScanFilter f : stages) sb.append(sb.length() > 0? "," : "").append(f);
+                return sb.toString();
+            }
+        };
+    }
+
+    /** Parses a comma-separated list of stages (see the class comment) into a chain. */
+    public static ScanFilter parse(String spec) {
+        List<ScanFilter> filters = new ArrayList<>();
+        for (String stage : spec.split(",")) {
+            String[] f = stage.trim().split(":");
+            double[] p = new double[f.length-1];
+            for (int i = 1; i < f.length; i++) p[i-1] = Double.parseDouble(f[i]);
+            int window = DEFAULT_WINDOW;
+            switch (f[0]) {
+                case "range":
+                    require(stage, p, 2, 2, ANY, ANY);
+                    filters.add(range(p[0], p[1]));
+                    break;
+                case "roi":
+                    require(stage, p, 4, 4, ANY, ANY, ANY, ANY);
+                    filters.add(roi(p[0], p[1], p[2], p[3]));
+                    break;
+                case "angular":
+                    require(stage, p, 1, 1, POSITIVE);
+                    filters.add(angular(Math.toRadians(p[0])));
+                    break;
+                case "voxel":
+                    require(stage, p, 1, 1, POSITIVE);
+                    filters.add(voxel(p[0]));
+                    break;
+                case "radius":
+                    require(stage, p, 2, 3, POSITIVE, 0, 1);
+                    if (p.length > 2) window = (int)p[2];
+                    filters.add(radiusOutliers(p[0], (int)p[1], window));
+                    break;
+                case "stat":
+                    require(stage, p, 2, 3, 1, ANY, 1);
+                    if (p.length > 2) window = (int)p[2];
+                    filters.add(statisticalOutliers((int)p[0], p[1], window));
+                    break;
+                case "shadow":
+                    require(stage, p, 1, 2, 0, 1);
+                    if (p.length > 1) window = (int)p[1];
+                    filters.add(shadows(Math.toRadians(p[0]), window));
+                    break;
+                default:
+                    throw new IllegalArgumentException("unknown filter \""+stage+"\"");
+            }
+        }
+        return filters.size() == 1? filters.get(0) : chain(filters);
+    }
+
+    // lower bounds for require()
+    private static final double ANY = Double.NEGATIVE_INFINITY, POSITIVE = Double.MIN_VALUE;
+
+    // checks there are min to max parameters, and that parameter i is at least lowest[i]
+    private static void require(String stage, double[] params, int min, int max, double... lowest) {
+        if (params.length < min || params.length > max) {
+            throw new IllegalArgumentException("wrong number of parameters in \""+stage+"\"");
+        }
+        for (int i = 0; i < params.length; i++) {
+            if (!(params[i] >= lowest[i])) {
+                throw new IllegalArgumentException("parameter "+(i+1)+" out of range in \""+stage+"\"");
+            }
+        }
+    }
+}
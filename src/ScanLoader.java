@@ -0,0 +1,41 @@
+import java.io.*;
+import java.util.*;
+
+public class ScanLoader {
+
+    public static final int REVS_TO_READ = Integer.MAX_VALUE;
+    public static final boolean CULL_CLOSE = false;
+
+    private final ICPLog log;
+    public int numRevs;
+
+    public ScanLoader(ICPLog log) {
+        this.log = log;
+    }
+
+    public ArrayList<Point> load(File file) throws IOException {
+        log.debug("Loading data...");
+        if (file.getName().endsWith(ScanFile.EXTENSION)) {
+            try (ScanFile sf = ScanFile.open(file)) {
+                return toPoints(sf.readAll());
+            }
+        }
+        return toPoints(ScanParser.parse(file, log));
+    }
+
+    public ArrayList<Point> load(InputStream in) throws IOException {
+        log.debug("Loading data...");
+        return toPoints(ScanParser.parse(in, log));
+    }
+
+    public ArrayList<Point> toPoints(RawScan scan) {
+        numRevs = scan.numRevs;
+        ArrayList<Point> points = scan.toPoints();
+        log.debug("Read "+points.size()+" points ("+numRevs+" revolutions)");
+        return points;
+    }
+
+    public static void sortPoints(List<Point> points) {
+        Collections.sort(points);
+    }
+}
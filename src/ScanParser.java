@@ -0,0 +1,207 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Parses "angle distance" scan text straight out of a ByteBuffer into a
+ * RawScan, without creating a String (or anything else) per line.
+ * Angles are in degrees in the file and radians in the result.
+ */
+public class ScanParser {
+
+    private static final double[] POW10 = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+        1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    private final ByteBuffer buf;
+    private final int end;
+    private int pos;
+
+    public long nanos; // time spent in the last parse()
+
+    public ScanParser(ByteBuffer buf) {
+        this.buf = buf;
+        this.pos = buf.position();
+        this.end = buf.limit();
+    }
+
+    public static MappedByteBuffer map(File file) throws IOException {
+        try (FileChannel ch = FileChannel.open(file.toPath())) {
+            return ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+        }
+    }
+
+    public static RawScan parse(File file, ICPLog log) throws IOException {
+        return parse(map(file), log);
+    }
+
+    public static RawScan parse(InputStream in, ICPLog log) throws IOException {
+        return parse(ByteBuffer.wrap(in.readAllBytes()), log);
+    }
+
+    public static RawScan parse(ByteBuffer buf, ICPLog log) {
+        ScanParser parser = new ScanParser(buf);
+        int bytes = buf.remaining();
+        RawScan scan = parser.parse();
+        log.debug("Parsed "+bytes/1000+" kB in "+Math.round(parser.nanos/1e6)+" ms ("+
+                  Math.round(getMBps(bytes, parser.nanos))+" MB/s)");
+        return scan;
+    }
+
+    public static double getMBps(long bytes, long nanos) {
+        return bytes / 1e6 / (nanos / 1e9);
+    }
+
+    // the sample decoded by the last successful next()
+    public double theta, dist;
+
+    /**
+     * Decodes the next "angle distance" line (skipping blank ones) into
+     * theta and dist, or returns false at the end of the buffer.
+     */
+    public boolean next() {
+        while (pos < end) {
+            skipBlanks();
+            if (pos >= end) break;
+            if (isNewline(buf.get(pos))) {
+                pos++;
+                continue;
+            }
+            int lineStart = pos;
+            theta = Math.toRadians(parseDouble());
+            skipBlanks();
+            dist = parseDouble();
+            skipLine();
+            if (Double.isNaN(dist) || Double.isNaN(theta)) throw new RuntimeException("NaN in data! \""+getString(lineStart, pos).trim()+"\"");
+            return true;
+        }
+        return false;
+    }
+
+    public RawScan parse() {
+        long startTime = System.nanoTime();
+        RawScan scan = new RawScan((end - pos) / 10);
+        double lastTheta = -1;
+        while (next()) {
+            if (theta < lastTheta) {
+                if (scan.numRevs+1 >= ScanLoader.REVS_TO_READ) break;
+                scan.newRev();
+            }
+            lastTheta = theta;
+            if (dist == 0) continue;
+            if (ScanLoader.CULL_CLOSE && dist < 1900) continue;
+            scan.add(theta, dist);
+        }
+        nanos = System.nanoTime() - startTime;
+        return scan;
+    }
+
+    private static boolean isNewline(byte b) {
+        return b == '\n' || b == '\r';
+    }
+
+    private void skipBlanks() {
+        while (pos < end) {
+            byte b = buf.get(pos);
+            if (b != ' ' && b != '\t') return;
+            pos++;
+        }
+    }
+
+    private void skipLine() {
+        while (pos < end && buf.get(pos) != '\n') pos++;
+        if (pos < end) pos++;
+    }
+
+    private String getString(int from, int to) {
+        byte[] bytes = new byte[to - from];
+        for (int i = 0; i < bytes.length; i++) bytes[i] = buf.get(from + i);
+        return new String(bytes, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Decodes a plain decimal number at pos. Anything that isn't exactly
+     * representable through the fast path (very long mantissas, large
+     * exponents, "NaN", junk) goes through Double.parseDouble so the result
+     * is always identical to what it would return.
+     */
+    private double parseDouble() {
+        int start = pos;
+        boolean neg = false;
+        if (pos < end && (buf.get(pos) == '-' || buf.get(pos) == '+')) {
+            neg = buf.get(pos) == '-';
+            pos++;
+        }
+        long mant = 0;
+        int digits = 0, exp = 0;
+        boolean any = false;
+        byte b = 0;
+        while (pos < end && (b = buf.get(pos)) >= '0' && b <= '9') {
+            if (digits < 18) {
+                mant = mant*10 + (b - '0');
+                if (mant != 0) digits++;
+            } else {
+                exp++;
+                digits++;
+            }
+            any = true;
+            pos++;
+        }
+        if (pos < end && buf.get(pos) == '.') {
+            pos++;
+            while (pos < end && (b = buf.get(pos)) >= '0' && b <= '9') {
+                if (digits < 18) {
+                    mant = mant*10 + (b - '0');
+                    exp--;
+                    if (mant != 0) digits++;
+                } else {
+                    digits++;
+                }
+                any = true;
+                pos++;
+            }
+        }
+        boolean fast = any && digits <= 15;
+        if (pos < end && ((b = buf.get(pos)) == 'e' || b == 'E')) {
+            pos++;
+            boolean expNeg = false;
+            if (pos < end && (buf.get(pos) == '-' || buf.get(pos) == '+')) {
+                expNeg = buf.get(pos) == '-';
+                pos++;
+            }
+            int e = 0;
+            boolean expAny = false;
+            while (pos < end && (b = buf.get(pos)) >= '0' && b <= '9') {
+                if (e < 10000) e = e*10 + (b - '0');
+                expAny = true;
+                pos++;
+            }
+            fast &= expAny;
+            exp += expNeg? -e : e;
+        }
+        if (pos < end && !isSeparator(buf.get(pos))) {
+            // not a plain number; let the JDK parse (or reject) the whole token
+            while (pos < end && !isSeparator(buf.get(pos))) pos++;
+            fast = false;
+        }
+        if (fast && exp >= -22 && exp <= 22) {
+            // mant < 10^15 < 2^53 and 10^|exp| are both exact, so one
+            // correctly-rounded operation gives the correctly-rounded result
+            double val = exp < 0? mant / POW10[-exp] : mant * POW10[exp];
+            return neg? -val : val;
+        }
+        String token = getString(start, pos);
+        try {
+            return Double.parseDouble(token);
+        } catch (NumberFormatException e) {
+            throw new NumberFormatException("Bad number in data: \""+token+"\"");
+        }
+    }
+
+    private static boolean isSeparator(byte b) {
+        return b == ' ' || b == '\t' || b == '\n' || b == '\r';
+    }
+}
@@ -0,0 +1,72 @@
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Replays a text scan file to a SocketScanSource, one revolution's worth of
+ * lines at a time, for testing the streaming pipeline without a scanner.
+ *
+ * Usage: java ScanSender [-rate revs/s] scan.txt (udp|tcp):host:port
+ */
+public class ScanSender {
+
+    public static void main(String[] args) throws Exception {
+        double rate = 10;
+        int a = 0;
+        if (args.length > 1 && args[0].equals("-rate")) {
+            rate = Double.parseDouble(args[1]);
+            a = 2;
+        }
+        if (args.length != a+2) {
+            System.err.println("usage: java ScanSender [-rate revs/s] scan.txt (udp|tcp):host:port");
+            System.exit(2);
+        }
+        String[] dest = args[a+1].split(":");
+        InetAddress host = InetAddress.getByName(dest[1]);
+        int port = Integer.parseInt(dest[2]);
+        boolean udp = dest[0].equals("udp");
+
+        DatagramSocket ds = udp? new DatagramSocket() : null;
+        Socket s = udp? null : new Socket(host, port);
+        OutputStream out = udp? null : s.getOutputStream();
+        long revNanos = (long)(1e9 / rate), nextTime = System.nanoTime();
+        try (BufferedReader br = new BufferedReader(new FileReader(args[a]))) {
+            StringBuilder rev = new StringBuilder();
+            double lastTheta = -1;
+            String line;
+            while (true) {
+                line = br.readLine();
+                double theta = line == null? -1 : Double.parseDouble(line.trim().split("\\s+")[0]);
+                if ((line == null || theta < lastTheta) && rev.length() > 0) {
+                    byte[] bytes = rev.toString().getBytes(StandardCharsets.US_ASCII);
+                    if (udp) {
+                        // stay well under the datagram size limit
+                        for (int off = 0; off < bytes.length; ) {
+                            int len = Math.min(bytes.length - off, 60000);
+                            while (off+len < bytes.length && bytes[off+len-1] != '\n') len--;
+                            ds.send(new DatagramPacket(bytes, off, len, host, port));
+                            off += len;
+                        }
+                    } else {
+                        out.write(bytes);
+                        out.flush();
+                    }
+                    rev.setLength(0);
+                    nextTime += revNanos;
+                    long wait = nextTime - System.nanoTime();
+                    if (wait > 0) Thread.sleep(wait / 1000000, (int)(wait % 1000000));
+                }
+                if (line == null) break;
+                lastTheta = theta;
+                rev.append(line).append('\n');
+            }
+        } finally {
+            if (udp) {
+                ds.send(new DatagramPacket(new byte[0], 0, host, port)); // end of stream
+                ds.close();
+            } else {
+                s.close();
+            }
+        }
+    }
+}
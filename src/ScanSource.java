@@ -0,0 +1,9 @@
+import java.io.Closeable;
+import java.io.IOException;
+
+/** Where live (or replayed) revolutions come from. */
+public interface ScanSource extends Closeable {
+
+    /** Blocks until the next revolution is complete, or returns null once the source runs dry. */
+    Revolution next() throws IOException, InterruptedException;
+}
@@ -34,13 +34,22 @@ public class Segment {
     }
     
     public double getDistanceSq(Point p) {
-        double t = line.getT(p);
-        if (t <= tMin) return pMin.getDistanceSq(p);
-        if (t >= tMax) return pMax.getDistanceSq(p);
-        double d = line.getDistance(p);
+        return getDistanceSq(p.x, p.y);
+    }
+    
+    public double getDistanceSq(double x, double y) {
+        double t = line.getT(x, y);
+        if (t <= tMin) return distSq(pMin, x, y);
+        if (t >= tMax) return distSq(pMax, x, y);
+        double d = line.getDistance(x, y);
         return d*d;
     }
     
+    private static double distSq(Point p, double x, double y) {
+        double dx = p.x-x, dy = p.y-y;
+        return dx*dx + dy*dy;
+    }
+    
     public Point getClosestPoint(Point p) {
         double t = line.getT(p);
         if (t <= tMin) return pMin;
@@ -48,6 +57,21 @@ public class Segment {
         return line.getPoint(t);
     }
     
+    // allocation-free getClosestPoint(): writes the result to outX[i], outY[i]
+    public void getClosestPoint(double x, double y, double[] outX, double[] outY, int i) {
+        double t = line.getT(x, y);
+        if (t <= tMin) {
+            outX[i] = pMin.x;
+            outY[i] = pMin.y;
+        } else if (t >= tMax) {
+            outX[i] = pMax.x;
+            outY[i] = pMax.y;
+        } else {
+            outX[i] = line.x0 + line.vx*t;
+            outY[i] = line.y0 + line.vy*t;
+        }
+    }
+    
     public Point getMidpoint() {
         return line.getPoint((tMin+tMax)/2);
     }
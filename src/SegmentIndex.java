@@ -0,0 +1,161 @@
+import java.util.Arrays;
+
+/**
+ * Bounding volume hierarchy over a set of Segments for exact nearest-segment
+ * queries. Subtrees whose box is farther away than the best segment found so
+ * far are skipped, so a query touches O(log n) nodes for typical maps instead
+ * of every segment. Segments mustn't be modified after the index is built.
+ */
+public class SegmentIndex {
+
+    private static final int LEAF_SIZE = 4;
+
+    private final Segment[] segments; // reordered so every node covers a contiguous range
+    private final int[] segIndex;     // original index of segments[i]
+
+    // nodes, flattened: a leaf has count > 0 and covers segments [start, start+count),
+    // an inner node has count == 0 and children at start and start+1
+    private double[] minX, minY, maxX, maxY;
+    private int[] start, count;
+    private int numNodes;
+
+    private final ThreadLocal<int[]> stacks = ThreadLocal.withInitial(() -> new int[64]);
+
+    public SegmentIndex(Segment[] ss) {
+        int n = ss.length;
+        segments = ss.clone();
+        segIndex = new int[n];
+        for (int i = 0; i < n; i++) segIndex[i] = i;
+
+        int maxNodes = Math.max(1, 2*n);
+        minX = new double[maxNodes];
+        minY = new double[maxNodes];
+        maxX = new double[maxNodes];
+        maxY = new double[maxNodes];
+        start = new int[maxNodes];
+        count = new int[maxNodes];
+
+        double[] cx = new double[n], cy = new double[n];
+        for (int i = 0; i < n; i++) {
+            cx[i] = (segments[i].pMin.x + segments[i].pMax.x) / 2;
+            cy[i] = (segments[i].pMin.y + segments[i].pMax.y) / 2;
+        }
+        numNodes = 1;
+        build(0, 0, n, cx, cy);
+    }
+
+    public int size() {
+        return segments.length;
+    }
+
+    private void build(int node, int from, int to, double[] cx, double[] cy) {
+        double x0 = Double.POSITIVE_INFINITY, y0 = Double.POSITIVE_INFINITY;
+        double x1 = Double.NEGATIVE_INFINITY, y1 = Double.NEGATIVE_INFINITY;
+        double cx0 = Double.POSITIVE_INFINITY, cy0 = Double.POSITIVE_INFINITY;
+        double cx1 = Double.NEGATIVE_INFINITY, cy1 = Double.NEGATIVE_INFINITY;
+        for (int i = from; i < to; i++) {
+            Segment s = segments[i];
+            x0 = Math.min(x0, Math.min(s.pMin.x, s.pMax.x));
+            y0 = Math.min(y0, Math.min(s.pMin.y, s.pMax.y));
+            x1 = Math.max(x1, Math.max(s.pMin.x, s.pMax.x));
+            y1 = Math.max(y1, Math.max(s.pMin.y, s.pMax.y));
+            cx0 = Math.min(cx0, cx[i]); cx1 = Math.max(cx1, cx[i]);
+            cy0 = Math.min(cy0, cy[i]); cy1 = Math.max(cy1, cy[i]);
+        }
+        minX[node] = x0; minY[node] = y0;
+        maxX[node] = x1; maxY[node] = y1;
+
+        if (to - from <= LEAF_SIZE) {
+            start[node] = from;
+            count[node] = to - from;
+            return;
+        }
+
+        // split at the median centroid along the longer axis
+        boolean splitX = cx1 - cx0 >= cy1 - cy0;
+        int mid = (from + to) >>> 1;
+        select(from, to-1, mid, splitX? cx : cy, cx, cy);
+
+        int left = numNodes;
+        numNodes += 2;
+        start[node] = left;
+        count[node] = 0;
+        build(left, from, mid, cx, cy);
+        build(left+1, mid, to, cx, cy);
+    }
+
+    // quickselect: puts the k-th smallest key at k, smaller ones before it, larger after
+    private void select(int lo, int hi, int k, double[] key, double[] cx, double[] cy) {
+        while (lo < hi) {
+            double pivot = key[(lo + hi) >>> 1];
+            int i = lo, j = hi;
+            while (i <= j) {
+                while (key[i] < pivot) i++;
+                while (key[j] > pivot) j--;
+                if (i <= j) swap(i++, j--, cx, cy);
+            }
+            if (k <= j) hi = j;
+            else if (k >= i) lo = i;
+            else return;
+        }
+    }
+
+    private void swap(int i, int j, double[] cx, double[] cy) {
+        Segment s = segments[i]; segments[i] = segments[j]; segments[j] = s;
+        int t = segIndex[i]; segIndex[i] = segIndex[j]; segIndex[j] = t;
+        double d = cx[i]; cx[i] = cx[j]; cx[j] = d;
+        d = cy[i]; cy[i] = cy[j]; cy[j] = d;
+    }
+
+    private double boxDistSq(int node, double x, double y) {
+        double dx = Math.max(0, Math.max(minX[node] - x, x - maxX[node]));
+        double dy = Math.max(0, Math.max(minY[node] - y, y - maxY[node]));
+        return dx*dx + dy*dy;
+    }
+
+    /** Returns the segment closest to (x, y), or null if there are none. */
+    public Segment getClosestSegment(double x, double y) {
+        int i = nearest(x, y);
+        return i < 0? null : segments[i];
+    }
+
+    /** Returns the original index of the segment closest to (x, y), or -1 if there are none. */
+    public int getClosestIndex(double x, double y) {
+        int i = nearest(x, y);
+        return i < 0? -1 : segIndex[i];
+    }
+
+    private int nearest(double x, double y) {
+        if (segments.length == 0) return -1;
+        int[] stack = stacks.get();
+        int sp = 0;
+        stack[sp++] = 0;
+        double best = Double.POSITIVE_INFINITY;
+        int bestI = -1;
+        while (sp > 0) {
+            int node = stack[--sp];
+            if (boxDistSq(node, x, y) >= best) continue;
+            int c = count[node];
+            if (c > 0) {
+                for (int i = start[node], end = i+c; i < end; i++) {
+                    double d = segments[i].getDistanceSq(x, y);
+                    if (d < best) {
+                        best = d;
+                        bestI = i;
+                    }
+                }
+            } else {
+                // push the farther child first so the nearer one is searched first
+                int a = start[node], b = a+1;
+                if (boxDistSq(a, x, y) < boxDistSq(b, x, y)) { int t = a; a = b; b = t; }
+                if (sp+2 > stack.length) {
+                    stack = Arrays.copyOf(stack, stack.length*2);
+                    stacks.set(stack);
+                }
+                stack[sp++] = a;
+                stack[sp++] = b;
+            }
+        }
+        return bestI;
+    }
+}
@@ -0,0 +1,93 @@
+import java.io.*;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * Local stand-in for a live scanner: listens for "angle distance" lines on
+ * a UDP port (any number of lines per datagram) or on a TCP port (one
+ * connection), and cuts them into revolutions. See ScanSender for a feeder.
+ */
+public class SocketScanSource implements ScanSource {
+
+    private final DatagramSocket udp;
+    private final ServerSocket server;
+    private Socket tcp;
+    private InputStream in;
+
+    private final RevolutionAssembler assembler = new RevolutionAssembler();
+    private final ArrayDeque<Revolution> ready = new ArrayDeque<>();
+    private final byte[] buf = new byte[65536];
+    private int carry; // bytes of an incomplete TCP line at the start of buf
+    private boolean done;
+
+    private SocketScanSource(DatagramSocket udp, ServerSocket server) {
+        this.udp = udp;
+        this.server = server;
+    }
+
+    public static SocketScanSource udp(int port) throws IOException {
+        return new SocketScanSource(new DatagramSocket(port), null);
+    }
+
+    public static SocketScanSource tcp(int port) throws IOException {
+        return new SocketScanSource(null, new ServerSocket(port));
+    }
+
+    public Revolution next() throws IOException {
+        while (ready.isEmpty() && !done) {
+            if (udp != null) receiveUDP();
+            else receiveTCP();
+        }
+        return ready.poll();
+    }
+
+    private void receiveUDP() throws IOException {
+        DatagramPacket packet = new DatagramPacket(buf, buf.length);
+        udp.receive(packet);
+        if (packet.getLength() == 0) { // an empty datagram marks the end of the stream
+            finish();
+            return;
+        }
+        parse(ByteBuffer.wrap(buf, 0, packet.getLength()));
+    }
+
+    private void receiveTCP() throws IOException {
+        if (in == null) {
+            tcp = server.accept();
+            in = tcp.getInputStream();
+        }
+        int n = in.read(buf, carry, buf.length - carry);
+        if (n < 0) {
+            if (carry > 0) parse(ByteBuffer.wrap(buf, 0, carry));
+            finish();
+            return;
+        }
+        int len = carry + n, lineEnd = len;
+        while (lineEnd > 0 && buf[lineEnd-1] != '\n') lineEnd--;
+        if (lineEnd == 0 && len == buf.length) throw new IOException("line too long");
+        parse(ByteBuffer.wrap(buf, 0, lineEnd));
+        carry = len - lineEnd;
+        System.arraycopy(buf, lineEnd, buf, 0, carry);
+    }
+
+    private void parse(ByteBuffer bytes) {
+        ScanParser parser = new ScanParser(bytes);
+        while (parser.next()) {
+            Revolution r = assembler.add(parser.theta, parser.dist);
+            if (r != null) ready.add(r);
+        }
+    }
+
+    private void finish() {
+        Revolution r = assembler.flush();
+        if (r != null) ready.add(r);
+        done = true;
+    }
+
+    public void close() throws IOException {
+        if (udp != null) udp.close();
+        if (tcp != null) tcp.close();
+        if (server != null) server.close();
+    }
+}
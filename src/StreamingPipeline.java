@@ -0,0 +1,143 @@
+import java.io.*;
+import java.util.ArrayDeque;
+
+/**
+ * Real-time registration: a ScanSource feeds revolutions through a bounded
+ * RevolutionQueue to a registration stage, which registers each one (or a
+ * sliding window of the last few) warm-started from the previous pose, and
+ * hands the results to a ResultSink. With a filter, each revolution goes
+ * through it before its ICP points are picked.
+ *
+ * Usage: java StreamingPipeline [-rate revs/s] [-queue n] [-drop] [-window revs]
+ *                               [-filter spec] (scan file | udp:port | tcp:port)
+ */
+public class StreamingPipeline {
+
+    public interface ResultSink {
+        /** latencyNanos: from the revolution's last sample to its registration being done. */
+        void accept(Revolution rev, ICPResult result, long latencyNanos);
+    }
+
+    private final ScanSource source;
+    private final RevolutionQueue queue;
+    private final ResultSink sink;
+    public Convergence convergence = Convergence.defaults();
+    public int window = 1; // revolutions registered together
+    public ScanFilter filter; // optional, see ScanFilter.parse()
+    public ICPLog log = ICPLog.SILENT;
+
+    public StreamingPipeline(ScanSource source, RevolutionQueue queue, ResultSink sink) {
+        this.source = source;
+        this.queue = queue;
+        this.sink = sink;
+    }
+
+    /** Runs until the source runs dry (or the calling thread is interrupted). */
+    public void run() throws InterruptedException {
+        Thread reader = new Thread(() -> {
+            try {
+                Revolution rev;
+                while ((rev = source.next()) != null) queue.put(rev);
+            } catch (IOException e) {
+                log.debug("Scan source failed: "+e);
+            } catch (InterruptedException e) {
+                // shutting down
+            } finally {
+                queue.close();
+            }
+        }, "scan-source");
+        reader.setDaemon(true);
+        reader.start();
+        try {
+            register();
+        } finally {
+            reader.interrupt();
+            try {
+                source.close();
+            } catch (IOException e) {
+                log.debug("Couldn't close scan source: "+e);
+            }
+        }
+    }
+
+    private void register() throws InterruptedException {
+        ArrayDeque<PointCloud> recent = new ArrayDeque<>();
+        PointCloud merged = new PointCloud();
+        PointCloud filtered = new PointCloud();
+        ICP icp = null;
+        Revolution rev;
+        while ((rev = queue.take()) != null) {
+            PointCloud points = rev.points;
+            if (filter != null) {
+                filtered.clear();
+                filter.apply(points, filtered);
+                points = filtered;
+            }
+            PointCloud icpPoints = new PointCloud();
+            ICP.getICPPoints(points, icpPoints);
+            recent.add(icpPoints);
+            while (recent.size() > window) recent.poll();
+
+            merged.clear();
+            for (PointCloud c : recent) {
+                for (int i = 0; i < c.size; i++) merged.add(c.x[i], c.y[i], c.theta[i], c.dist[i], c.rev[i], c.id[i]);
+            }
+            if (merged.size == 0) continue;
+
+            if (icp == null) {
+                double sumX = 0, sumY = 0;
+                for (int i = 0; i < merged.size; i++) {
+                    sumX += merged.x[i];
+                    sumY += merged.y[i];
+                }
+                icp = new ICP(log, Point.fromRect(sumX/merged.size, sumY/merged.size));
+            }
+            icp.lastMean = Double.POSITIVE_INFINITY; // warm-start the pose, not the outlier threshold
+            ICPResult result = icp.doICP(convergence, merged);
+            if (result.stop == ICPResult.Stop.NO_INLIERS) icp = null; // start over next time
+            sink.accept(rev, result, System.nanoTime() - rev.timeNanos);
+        }
+    }
+
+    static void usage() {
+        System.err.println("usage: java StreamingPipeline [-rate revs/s] [-queue n] [-drop] [-window revs] "+
+                           "[-filter spec] (scan file | udp:port | tcp:port)");
+        System.exit(2);
+    }
+
+    public static void main(String[] args) throws Exception {
+        System.setProperty("java.awt.headless", "true");
+
+        double rate = 0;
+        int capacity = 4, window = 1;
+        RevolutionQueue.Policy policy = RevolutionQueue.Policy.BLOCK;
+        String input = null;
+        ScanFilter filter = null;
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.equals("-rate") && i+1 < args.length) rate = Double.parseDouble(args[++i]);
+            else if (arg.equals("-queue") && i+1 < args.length) capacity = Integer.parseInt(args[++i]);
+            else if (arg.equals("-window") && i+1 < args.length) window = Integer.parseInt(args[++i]);
+            else if (arg.equals("-filter") && i+1 < args.length) filter = ScanFilter.parse(args[++i]);
+            else if (arg.equals("-drop")) policy = RevolutionQueue.Policy.DROP_OLDEST;
+            else if (arg.startsWith("-") || input != null) usage();
+            else input = arg;
+        }
+        if (input == null) usage();
+
+        ScanSource source;
+        if (input.startsWith("udp:")) source = SocketScanSource.udp(Integer.parseInt(input.substring(4)));
+        else if (input.startsWith("tcp:")) source = SocketScanSource.tcp(Integer.parseInt(input.substring(4)));
+        else source = FileScanSource.open(new File(input), rate);
+
+        RevolutionQueue queue = new RevolutionQueue(capacity, policy);
+        System.out.println("rev,points,latency_ms,theta_deg,tx,ty,iterations,inliers,mean_error,dropped");
+        StreamingPipeline pipeline = new StreamingPipeline(source, queue, (rev, r, latency) ->
+            System.out.println(rev.index+","+rev.points.size+","+latency/1e6+","+Math.toDegrees(r.trans.theta)+","+
+                               r.trans.tx+","+r.trans.ty+","+r.iterations+","+r.inliers+","+r.meanError+","+
+                               queue.getDropped()));
+        pipeline.window = window;
+        pipeline.filter = filter;
+        pipeline.run();
+    }
+}
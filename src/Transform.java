@@ -28,6 +28,26 @@ public class Transform {
                                 p.x*sin + p.y*cos + ty);
     }
     
+    // batched apply() of the x/y columns: dst[i] = this(src[i]) for i in [0, src.size)
+    public void applyAll(PointCloud src, PointCloud dst) {
+        dst.setSize(src.size);
+        applyAll(src.x, src.y, dst.x, dst.y, 0, src.size);
+    }
+    
+    public void applyAll(double[] srcX, double[] srcY, double[] dstX, double[] dstY, int from, int to) {
+        applyAll(cos, sin, tx, ty, srcX, srcY, dstX, dstY, from, to);
+    }
+    
+    // same as above, for callers that keep a transform in local variables
+    public static void applyAll(double cos, double sin, double tx, double ty,
+                                double[] srcX, double[] srcY, double[] dstX, double[] dstY, int from, int to) {
+        for (int i = from; i < to; i++) {
+            double x = srcX[i], y = srcY[i];
+            dstX[i] = x*cos - y*sin + tx;
+            dstY[i] = x*sin + y*cos + ty;
+        }
+    }
+    
     public Line apply(Line l) {
         return new Line(l.vx*cos - l.vy*sin,
                         l.vx*sin + l.vy*cos,
@@ -0,0 +1,80 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+/**
+ * Everything the display shows for one loaded and registered state: the
+ * points, the ICP subset, the transform and the correspondences. It's built
+ * off the event thread and published as a whole, and nothing in it changes
+ * afterwards (stepping ICP or merging a scan builds a new one from copies
+ * of the points), so it can be drawn while the next one is being built.
+ */
+public final class ViewSnapshot {
+
+    public final int dataI;
+    public final String name;
+    public final List<Point> points, icpPoints;
+    public final PointIndex pointIndex;
+    public final int numRevs;
+    public final FusedCloud cloud;
+    public final Transform trans;
+    public final ReferenceModel transReference;
+    public final List<ICP.PointPair> pairs;
+    public final double dbgLength, lastMean;
+    public final ICPResult result;
+
+    public ViewSnapshot(int dataI, String name, List<Point> points, List<Point> icpPoints,
+                        PointIndex pointIndex, int numRevs, FusedCloud cloud, ICP icp, ICPResult result) {
+        this(dataI, name, points, icpPoints, pointIndex, numRevs, cloud, icp.icpTrans, icp.transReference,
+             icp.getPairs(), icp.dbgLength, icp.lastMean, result);
+    }
+
+    public ViewSnapshot(int dataI, String name, List<Point> points, List<Point> icpPoints,
+                        PointIndex pointIndex, int numRevs, FusedCloud cloud,
+                        Transform trans, ReferenceModel transReference, List<ICP.PointPair> pairs,
+                        double dbgLength, double lastMean, ICPResult result) {
+        this.dataI = dataI;
+        this.name = name;
+        this.points = Collections.unmodifiableList(points);
+        this.icpPoints = Collections.unmodifiableList(icpPoints);
+        this.pointIndex = pointIndex;
+        this.numRevs = numRevs;
+        this.cloud = cloud;
+        this.trans = trans;
+        this.transReference = transReference;
+        this.pairs = Collections.unmodifiableList(pairs);
+        this.dbgLength = dbgLength;
+        this.lastMean = lastMean;
+        this.result = result;
+    }
+
+    /** An ICP that carries on from where this snapshot's left off. */
+    public ICP resumeICP(ICPLog log) {
+        ICP icp = new ICP(log, Point.fromRect(trans.tx, trans.ty));
+        icp.icpTrans = trans;
+        icp.lastMean = lastMean;
+        return icp;
+    }
+
+    /**
+     * Copies of points and icpPoints (in that order, icpPoints referring to
+     * the copies in the first list), for building a new snapshot from this
+     * one without touching its points' flags.
+     */
+    public List<ArrayList<Point>> copyPoints() {
+        IdentityHashMap<Point, Point> copies = new IdentityHashMap<>(points.size());
+        ArrayList<Point> ps = new ArrayList<>(points.size());
+        for (Point p : points) {
+            Point c = p.copy();
+            copies.put(p, c);
+            ps.add(c);
+        }
+        ArrayList<Point> icps = new ArrayList<>(icpPoints.size());
+        for (Point p : icpPoints) icps.add(copies.get(p));
+        List<ArrayList<Point>> out = new ArrayList<>(2);
+        out.add(ps);
+        out.add(icps);
+        return out;
+    }
+}